@@ -0,0 +1,111 @@
+package org.anefdev.flowtherockapp.benchmarks;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.TrackTable;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.michaelthelin.spotify.model_objects.miscellaneous.AudioAnalysis;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the PlaylistParser hot paths, one operation handles a whole playlist.
+ * <br>
+ * Run with the gc profiler to get the allocation rate per operation, see the module's README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PlaylistParserBenchmark {
+
+    // Seeds are taken round-robin, so the sort does not always walk the same buckets
+    private static final int SEEDS = 16;
+
+    @Param({"100", "1000", "10000", "50000"})
+    private int size;
+
+    private String[] keys;
+    private String[] modes;
+    private List<AudioAnalysis> analyses;
+    private List<PlaylistTrack> items;
+    private List<MusicTrack> tracks;
+    private TrackTable table;
+    private String[] seeds;
+    private int nextSeed;
+
+    @Setup
+    public void setUp() {
+        final SyntheticPlaylists playlist = SyntheticPlaylists.generate(this.size, 42);
+        this.keys = playlist.raw().stream().map(track -> String.valueOf(track.key())).toArray(String[]::new);
+        this.modes = playlist.raw().stream().map(track -> String.valueOf(track.mode())).toArray(String[]::new);
+        this.analyses = playlist.audioAnalyses();
+        this.items = playlist.playlistItems();
+        this.tracks = playlist.parsedTracks();
+        this.table = TrackTable.of(this.tracks);
+        this.seeds = new String[SEEDS];
+        for (int i = 0; i < SEEDS; i++) {
+            this.seeds[i] = this.tracks.get(i * this.size / SEEDS).getId();
+        }
+    }
+
+    @Benchmark
+    public void parseTrackAnalysisKey(Blackhole blackhole) {
+        for (int i = 0; i < this.keys.length; i++) {
+            // The parser writes into the track, so every operation starts from unparsed tracks
+            final MusicTrack track = new MusicTrack();
+            track.setKey(this.keys[i]);
+            track.setMode(this.modes[i]);
+            blackhole.consume(PlaylistParser.parseTrackAnalysisKey(track));
+        }
+    }
+
+    @Benchmark
+    public void convertTrackAnalysisToTrack(Blackhole blackhole) {
+        for (AudioAnalysis analysis : this.analyses) {
+            blackhole.consume(PlaylistParser.convertTrackAnalysisToTrack(analysis));
+        }
+    }
+
+    @Benchmark
+    public List<MusicTrack> getTrackListNoMetaData() {
+        return PlaylistParser.getTrackListNoMetaData(this.items);
+    }
+
+    /**
+     * Sort of a loaded playlist, from its table and Camelot index.
+     */
+    @Benchmark
+    public List<MusicTrack> sortPlaylist() {
+        return PlaylistParser.sortPlaylist(this.table, this.nextSeed());
+    }
+
+    /**
+     * Sort including the build of the table and its Camelot index.
+     */
+    @Benchmark
+    public List<MusicTrack> sortPlaylistFromList() {
+        return PlaylistParser.sortPlaylist(this.tracks, this.nextSeed());
+    }
+
+    private String nextSeed() {
+        final String seed = this.seeds[this.nextSeed];
+        this.nextSeed = (this.nextSeed + 1) % SEEDS;
+        return seed;
+    }
+}
@@ -0,0 +1,60 @@
+package org.anefdev.flowtherockapp.benchmarks;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.TrackTable;
+import org.anefdev.flowtherockapp.util.SetSequencer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the greedy path of SetSequencer, one operation sequences a whole playlist.
+ * <br>
+ * The improvement rounds get no time budget, they run until their budget whatever the playlist size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SetSequencerBenchmark {
+
+    // Seeds are taken round-robin, so the path does not always start in the same bucket
+    private static final int SEEDS = 16;
+
+    @Param({"1000", "5000", "10000"})
+    private int size;
+
+    private TrackTable table;
+    private String[] seeds;
+    private int nextSeed;
+
+    @Setup
+    public void setUp() {
+        final List<MusicTrack> tracks = SyntheticPlaylists.generate(this.size, 42).parsedTracks();
+        this.table = TrackTable.of(tracks);
+        this.seeds = new String[SEEDS];
+        for (int i = 0; i < SEEDS; i++) {
+            this.seeds[i] = tracks.get(i * this.size / SEEDS).getId();
+        }
+    }
+
+    @Benchmark
+    public List<MusicTrack> greedyPath() {
+        final String seed = this.seeds[this.nextSeed];
+        this.nextSeed = (this.nextSeed + 1) % SEEDS;
+        return SetSequencer.sequencePlaylist(this.table, seed, 1f, 0.1f, 0f, 0);
+    }
+}
@@ -0,0 +1,117 @@
+package org.anefdev.flowtherockapp.benchmarks;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+import se.michaelthelin.spotify.enums.Modality;
+import se.michaelthelin.spotify.model_objects.miscellaneous.AudioAnalysis;
+import se.michaelthelin.spotify.model_objects.miscellaneous.AudioAnalysisTrack;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic playlists with realistic key and tempo distributions.
+ * <br>
+ * Keys follow the pitch class frequencies of popular music (C, G and D most common, D♯ rarest), about 60% of the tracks
+ * are major. Tempos cluster around 120-128 BPM with a tail of slower and faster tracks, a small share of the tracks
+ * has no detected key, like tracks Spotify could not analyze.
+ */
+public class SyntheticPlaylists {
+
+    private static final double[] KEY_WEIGHTS = {12.5, 10.5, 10, 3, 7.5, 8, 7, 11.5, 6.5, 9, 6, 8.5};
+    private static final double MAJOR_SHARE = 0.6;
+    private static final double NO_KEY_SHARE = 0.02;
+    private static final double DANCE_TEMPO_SHARE = 0.65;
+
+    private final List<Raw> tracks;
+
+    /**
+     * One generated track, with the values Spotify's audio features or audio analysis report.
+     */
+    public record Raw(String id, int key, Modality mode, float tempo) {
+    }
+
+    private SyntheticPlaylists(List<Raw> tracks) {
+        this.tracks = tracks;
+    }
+
+    /**
+     * @param size Number of tracks
+     * @param seed Random seed, equal seeds give equal playlists
+     */
+    public static SyntheticPlaylists generate(int size, long seed) {
+        final Random random = new Random(seed);
+        final List<Raw> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final int key = random.nextDouble() < NO_KEY_SHARE ? -1 : weightedKey(random);
+            final Modality mode = random.nextDouble() < MAJOR_SHARE ? Modality.MAJOR : Modality.MINOR;
+            final double tempo = random.nextDouble() < DANCE_TEMPO_SHARE
+                    ? 124 + random.nextGaussian() * 6
+                    : 70 + random.nextDouble() * 110;
+            tracks.add(new Raw(String.format("%022d", i), key, mode, (float) Math.round(tempo * 1000) / 1000));
+        }
+        return new SyntheticPlaylists(tracks);
+    }
+
+    public List<Raw> raw() {
+        return this.tracks;
+    }
+
+    public List<String> ids() {
+        return this.tracks.stream().map(Raw::id).toList();
+    }
+
+    public List<AudioAnalysis> audioAnalyses() {
+        return this.tracks.stream()
+                .map(track -> new AudioAnalysis.Builder()
+                        .setTrack(new AudioAnalysisTrack.Builder()
+                                .setTempo(track.tempo())
+                                .setKey(track.key())
+                                .setMode(track.mode())
+                                .build())
+                        .build())
+                .toList();
+    }
+
+    public List<PlaylistTrack> playlistItems() {
+        return this.tracks.stream()
+                .map(track -> new PlaylistTrack.Builder()
+                        .setTrack(new Track.Builder().setId(track.id()).build())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * @return Tracks as the load pipeline stores them, with Camelot codes
+     */
+    public List<MusicTrack> parsedTracks() {
+        return this.tracks.stream()
+                .map(track -> {
+                    final MusicTrack musicTrack = new MusicTrack();
+                    musicTrack.setId(track.id());
+                    musicTrack.setBpm(String.valueOf(track.tempo()));
+                    musicTrack.setKey(String.valueOf(track.key()));
+                    musicTrack.setMode(String.valueOf(track.mode()));
+                    return PlaylistParser.parseTrackAnalysisKey(musicTrack);
+                })
+                .toList();
+    }
+
+    private static int weightedKey(Random random) {
+        double total = 0;
+        for (double weight : KEY_WEIGHTS) {
+            total += weight;
+        }
+        double pick = random.nextDouble() * total;
+        for (int key = 0; key < KEY_WEIGHTS.length; key++) {
+            pick -= KEY_WEIGHTS[key];
+            if (pick < 0) {
+                return key;
+            }
+        }
+        return KEY_WEIGHTS.length - 1;
+    }
+}
@@ -0,0 +1,66 @@
+#!/bin/sh
+# Measures startup time (container start until /actuator/health answers) and resident memory of the image variants.
+#
+# Images:
+#   docker build -t flowtherock:jvm flowtherock-app
+#   (cd flowtherock-app && mvn -B -Pnative spring-boot:build-image -Dspring-boot.build-image.imageName=flowtherock:native)
+#
+# Usage: ./measure-startup.sh [runs]
+# A run that is not healthy within STARTUP_TIMEOUT seconds (default 120) is reported and its variant skipped.
+set -eu
+
+RUNS=${1:-5}
+PORT=${PORT:-18080}
+STARTUP_TIMEOUT=${STARTUP_TIMEOUT:-120}
+id=""
+
+# The running container is removed on every exit, also on failures and Ctrl-C
+cleanup() {
+  if [ -n "$id" ]; then
+    docker rm -f "$id" >/dev/null 2>&1 || true
+    id=""
+  fi
+}
+trap cleanup EXIT
+trap 'exit 130' INT TERM
+
+# name image java-opts
+measure() {
+  name=$1
+  image=$2
+  opts=$3
+  if ! docker image inspect "$image" >/dev/null 2>&1; then
+    printf '%-16s image %s not found, skipped\n' "$name" "$image"
+    return
+  fi
+  total_ms=0
+  total_rss=0
+  for run in $(seq "$RUNS"); do
+    started=$(date +%s%N)
+    id=$(docker run -d -p "$PORT:8080" -e JAVA_OPTS="$opts" "$image")
+    deadline=$(($(date +%s) + STARTUP_TIMEOUT))
+    until curl -fs "http://localhost:$PORT/actuator/health" >/dev/null 2>&1; do
+      # Only the clock is checked, a docker call per poll would add to the measured time
+      if [ "$(date +%s)" -ge "$deadline" ]; then
+        printf '%-16s run %d not healthy within %d s, skipped; last log lines:\n' "$name" "$run" "$STARTUP_TIMEOUT"
+        docker logs --tail 20 "$id" 2>&1 | sed 's/^/    /'
+        cleanup
+        return
+      fi
+      sleep 0.01
+    done
+    ready=$(date +%s%N)
+    # RSS in KB of the process, read on the host so it also works for images without a shell
+    rss=$(docker top "$id" -o rss | tail -n 1 | tr -d ' ')
+    cleanup
+    total_ms=$((total_ms + (ready - started) / 1000000))
+    total_rss=$((total_rss + rss))
+  done
+  printf '%-16s startup %6d ms   rss %6d MB\n' "$name" $((total_ms / RUNS)) $((total_rss / RUNS / 1024))
+}
+
+echo "Mean of $RUNS runs"
+measure jvm flowtherock:jvm "-Xshare:off -Dspring.aot.enabled=false"
+measure jvm-aot flowtherock:jvm "-Xshare:off"
+measure jvm-aot-cds flowtherock:jvm ""
+measure native flowtherock:native ""
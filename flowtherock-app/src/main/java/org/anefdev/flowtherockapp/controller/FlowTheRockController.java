@@ -1,63 +1,244 @@
 package org.anefdev.flowtherockapp.controller;
 
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.SneakyThrows;
+import org.anefdev.flowtherockapp.model.LibraryIndexStatus;
 import org.anefdev.flowtherockapp.model.MusicPlaylist;
 import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.PlaylistLoadSummary;
 import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.anefdev.flowtherockapp.model.TrackColumns;
+import org.anefdev.flowtherockapp.model.TrackCacheStats;
+import org.anefdev.flowtherockapp.model.TrackTable;
 import org.anefdev.flowtherockapp.service.FlowTheRockService;
+import org.anefdev.flowtherockapp.service.LibraryService;
+import org.anefdev.flowtherockapp.service.WarmUpService;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.WebUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @RequestMapping(path = "flowtherock/api")
-@CrossOrigin("*")
+// The session cookie is only sent along by the web client's origin
+@CrossOrigin(origins = FlowTheRockController.WEB_CLIENT_ORIGIN, allowCredentials = "true")
 public class FlowTheRockController {
 
     private static Logger LOGGER = LoggerFactory.getLogger(FlowTheRockController.class);
-    private static final String REDIRECT_WEB_CLIENT = "http://164.90.185.125/index.html";
+    static final String WEB_CLIENT_ORIGIN = "http://164.90.185.125";
+    private static final String REDIRECT_WEB_CLIENT = WEB_CLIENT_ORIGIN + "/index.html";
+    static final String SESSION_HEADER = "X-Session-Id";
+    static final String SESSION_COOKIE = "flowtherock-session";
+    static final String STATE_COOKIE = "flowtherock-oauth-state";
+    private static final int STATE_MAX_AGE_SECONDS = 600;
+    private static final SecureRandom RANDOM = new SecureRandom();
     @Autowired
     FlowTheRockService service;
+    @Autowired
+    LibraryService libraryService;
+    @Autowired
+    WarmUpService warmUpService;
 
     @GetMapping(path = "/authorize")
     @SneakyThrows
-    public ModelAndView authorize() {
+    public ModelAndView authorize(HttpServletResponse response) {
         LOGGER.info("New login with Spotify ...");
-        return new ModelAndView("redirect:" + this.service.getAuthorisationCodeURI().toString());
+        // The state binds the callback to the browser that started the login
+        final byte[] random = new byte[32];
+        RANDOM.nextBytes(random);
+        final String state = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        response.addCookie(cookie(STATE_COOKIE, state, STATE_MAX_AGE_SECONDS));
+        return new ModelAndView("redirect:" + this.service.getAuthorisationCodeURI(state).toString());
     }
 
     @GetMapping(path = "/callback")
-    public ModelAndView callback(@RequestParam(value = "code") final String code) {
+    public ModelAndView callback(@RequestParam(value = "code") final String code,
+                                 @RequestParam(value = "state") final String state,
+                                 HttpServletRequest request,
+                                 HttpServletResponse response) {
         LOGGER.info("Get authorization token ...");
-        this.service.setAuthorizationToken(code);
+        final Cookie stateCookie = WebUtils.getCookie(request, STATE_COOKIE);
+        response.addCookie(cookie(STATE_COOKIE, "", 0));
+        if (stateCookie == null || !MessageDigest.isEqual(
+                stateCookie.getValue().getBytes(StandardCharsets.UTF_8), state.getBytes(StandardCharsets.UTF_8))) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Login was not started by this browser");
+        }
+        final String sessionId = this.service.setAuthorizationToken(code);
+        this.warmUpService.start(sessionId);
+        response.addCookie(cookie(SESSION_COOKIE, sessionId, -1));
         return new ModelAndView("redirect:"  + REDIRECT_WEB_CLIENT);
     }
 
     @GetMapping(path = "/user")
-    public SpotifyUser getUserData() {
+    public SpotifyUser getUserData(HttpServletRequest request) {
         LOGGER.info("Get user data ...");
-        return this.service.loadUserData();
+        return this.service.loadUserData(sessionId(request));
     }
 
     @GetMapping(path = "/playlists")
-    public List<MusicPlaylist> getPlaylists() {
-        return this.service.loadAllUsersPlaylists();
+    public List<MusicPlaylist> getPlaylists(HttpServletRequest request, WebRequest webRequest, HttpServletResponse response) {
+        final List<MusicPlaylist> playlists = this.service.loadAllUsersPlaylists(sessionId(request));
+        return notModified(webRequest, response, PlaylistParser.getPlaylistsVersion(playlists)) ? null : playlists;
     }
 
     @GetMapping(path = "/playlist/load")
     @SneakyThrows
-    public List<MusicTrack> loadPlaylist(@RequestParam(value = "playlistId") String playlistId) {
-        return service.loadPlaylist(playlistId);
+    public List<MusicTrack> loadPlaylist(@RequestParam(value = "playlistId") String playlistId, HttpServletRequest request,
+                                         WebRequest webRequest, HttpServletResponse response) {
+        final String sessionId = sessionId(request);
+        // An unchanged playlist loaded before is answered from its table, a 304 then needs no track at all
+        final TrackTable loaded = service.switchToLoadedPlaylist(sessionId, playlistId);
+        if (loaded != null) {
+            return notModified(webRequest, response, loaded.version()) ? null : loaded.toTracks();
+        }
+        // Loading also makes the playlist the session's current one, so it cannot be skipped on a match
+        final List<MusicTrack> tracks = service.loadPlaylist(sessionId, playlistId);
+        return notModified(webRequest, response, service.getPlaylistVersion(sessionId)) ? null : tracks;
+    }
+
+    @GetMapping(path = "/playlist/load", params = "format=columns")
+    public TrackColumns loadPlaylistColumns(@RequestParam(value = "playlistId") String playlistId, HttpServletRequest request,
+                                            WebRequest webRequest, HttpServletResponse response) {
+        final List<MusicTrack> tracks = this.loadPlaylist(playlistId, request, webRequest, response);
+        return tracks == null ? null : TrackColumns.of(tracks);
+    }
+
+    @GetMapping(path = "/playlist/load/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MusicTrack> streamPlaylist(@RequestParam(value = "playlistId") String playlistId, HttpServletRequest request) {
+        return service.streamPlaylist(sessionId(request), playlistId);
+    }
+
+    @GetMapping(path = "/playlist/load/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamPlaylistEvents(@RequestParam(value = "playlistId") String playlistId, HttpServletRequest request) {
+        final long started = System.currentTimeMillis();
+        final AtomicInteger tracks = new AtomicInteger();
+        return service.streamPlaylist(sessionId(request), playlistId)
+                .map(track -> {
+                    tracks.incrementAndGet();
+                    return ServerSentEvent.<Object>builder(track).event("track").id(track.getId()).build();
+                })
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder(
+                        new PlaylistLoadSummary(playlistId, tracks.get(), System.currentTimeMillis() - started))
+                        .event("summary")
+                        .build()));
     }
 
     @GetMapping(path = "/playlist/sort")
     @SneakyThrows
-    public List<MusicTrack> sort(@RequestParam(value = "trackId") String trackId) {
-        return service.sortPlaylist(trackId);
+    public List<MusicTrack> sort(@RequestParam(value = "trackId") String trackId, HttpServletRequest request,
+                                 WebRequest webRequest, HttpServletResponse response) {
+        final String sessionId = sessionId(request);
+        final String version = service.getPlaylistVersion(sessionId);
+        if (notModified(webRequest, response, version == null ? null : version + ":sort:" + trackId)) {
+            return null;
+        }
+        return service.sortPlaylist(sessionId, trackId);
+    }
+
+    @GetMapping(path = "/playlist/sort", params = "format=columns")
+    public TrackColumns sortColumns(@RequestParam(value = "trackId") String trackId, HttpServletRequest request,
+                                    WebRequest webRequest, HttpServletResponse response) {
+        final List<MusicTrack> tracks = this.sort(trackId, request, webRequest, response);
+        return tracks == null ? null : TrackColumns.of(tracks);
+    }
+
+    @GetMapping(path = "/playlist/sequence")
+    @SneakyThrows
+    public List<MusicTrack> sequence(@RequestParam(value = "trackId") String trackId,
+                                     @RequestParam(value = "energyWeight", defaultValue = "0") float energyWeight,
+                                     HttpServletRequest request) {
+        return service.sequencePlaylist(sessionId(request), trackId, energyWeight);
+    }
+
+    @GetMapping(path = "/library/index")
+    public LibraryIndexStatus buildLibraryIndex(HttpServletRequest request) {
+        return libraryService.buildIndex(sessionId(request));
+    }
+
+    @GetMapping(path = "/library/status")
+    public LibraryIndexStatus getLibraryIndexStatus(HttpServletRequest request) {
+        return libraryService.getIndexStatus(sessionId(request));
+    }
+
+    @GetMapping(path = "/library/next")
+    public List<MusicTrack> nextTracks(@RequestParam(value = "trackId") String trackId,
+                                       @RequestParam(value = "limit", defaultValue = "10") int limit,
+                                       HttpServletRequest request) {
+        return libraryService.findNextTracks(sessionId(request), trackId, limit);
+    }
+
+    /**
+     * Stops the background warm-up, e.g. from navigator.sendBeacon when the user leaves the page.
+     */
+    @PostMapping(path = "/warmup/cancel")
+    public boolean cancelWarmUp(HttpServletRequest request) {
+        return warmUpService.cancel(sessionId(request));
+    }
+
+    @GetMapping(path = "/cache/stats")
+    public TrackCacheStats getCacheStats() {
+        return service.getTrackCacheStats();
+    }
+
+    /**
+     * Sets the ETag of the response and checks the request's If-None-Match against it.
+     * Every representation needs its own tag, so the tag is hashed from the version, the Accept header and the format.
+     * @param version Version of the response content, null if unknown
+     * @return true if the client's copy is current, the response is then a 304 without body
+     */
+    static boolean notModified(WebRequest webRequest, HttpServletResponse response, String version) {
+        if (version == null) {
+            return false;
+        }
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        final String representation = version + "|" + webRequest.getHeader(HttpHeaders.ACCEPT) + "|" + webRequest.getParameter("format");
+        return webRequest.checkNotModified(DigestUtils.md5DigestAsHex(representation.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param maxAge Lifetime in seconds, -1 until the browser is closed, 0 deletes the cookie
+     */
+    private static Cookie cookie(String name, String value, int maxAge) {
+        final Cookie cookie = new Cookie(name, value);
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge(maxAge);
+        // Lax: still sent on the top-level redirect back from Spotify
+        cookie.setAttribute("SameSite", "Lax");
+        return cookie;
+    }
+
+    /**
+     * Resolves the session ID from the session header, falling back to the session cookie.
+     */
+    static String sessionId(HttpServletRequest request) {
+        final String header = request.getHeader(SESSION_HEADER);
+        if (header != null && !header.isBlank()) {
+            return header;
+        }
+        final Cookie cookie = WebUtils.getCookie(request, SESSION_COOKIE);
+        return cookie == null ? null : cookie.getValue();
     }
 
 }
@@ -0,0 +1,45 @@
+package org.anefdev.flowtherockapp.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.anefdev.flowtherockapp.service.ReactiveFlowTheRockService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.anefdev.flowtherockapp.controller.FlowTheRockController.sessionId;
+
+@RestController
+@RequestMapping(path = "flowtherock/api/reactive")
+@CrossOrigin(origins = FlowTheRockController.WEB_CLIENT_ORIGIN, allowCredentials = "true")
+public class FlowTheRockReactiveController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlowTheRockReactiveController.class);
+    @Autowired
+    ReactiveFlowTheRockService service;
+
+    @GetMapping(path = "/user")
+    public Mono<SpotifyUser> getUserData(HttpServletRequest request) {
+        LOGGER.info("Get user data (reactive) ...");
+        return this.service.loadUserData(sessionId(request));
+    }
+
+    @GetMapping(path = "/playlists")
+    public Flux<MusicPlaylist> getPlaylists(HttpServletRequest request) {
+        return this.service.loadAllUsersPlaylists(sessionId(request));
+    }
+
+    /**
+     * Responds with a JSON array, or with an NDJSON stream if the client accepts application/x-ndjson.
+     */
+    @GetMapping(path = "/playlist/load")
+    public Flux<MusicTrack> loadPlaylist(@RequestParam(value = "playlistId") String playlistId, HttpServletRequest request) {
+        return this.service.loadPlaylist(sessionId(request), playlistId);
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.anefdev.flowtherockapp.util.Camelot;
+
+import java.util.Arrays;
+
+/**
+ * Rows of a TrackTable bucketed by Camelot code, each bucket ordered by BPM.
+ * <br>
+ * Built once per loaded playlist and read-only afterwards. A sort for any seed walks the seed's bucket
+ * and its harmonic buckets outwards from the seed tempo instead of scanning and sorting the whole table.
+ * Every bucket is kept twice, ascending and descending by BPM, both with ties in row order,
+ * so both walking directions yield ties in playlist order. Rows without tempo are kept apart in row order.
+ */
+public class CamelotIndex {
+
+    private final float[][] ascendingBpm = new float[Camelot.POSITIONS][];
+    private final int[][] ascending = new int[Camelot.POSITIONS][];
+    private final int[][] descending = new int[Camelot.POSITIONS][];
+    private final int[][] unknownBpm = new int[Camelot.POSITIONS][];
+
+    private CamelotIndex() {
+    }
+
+    static CamelotIndex of(TrackTable table) {
+        final int[] known = new int[Camelot.POSITIONS];
+        final int[] unknown = new int[Camelot.POSITIONS];
+        for (int row = 0; row < table.size(); row++) {
+            final byte camelot = table.camelot(row);
+            if (camelot != Camelot.NONE) {
+                if (Float.isNaN(table.bpm(row))) {
+                    unknown[camelot]++;
+                } else {
+                    known[camelot]++;
+                }
+            }
+        }
+
+        // Sort keys: sortable tempo bits in the high 32 bits, row in the low 32 bits
+        final long[][] ascendingKeys = new long[Camelot.POSITIONS][];
+        final long[][] descendingKeys = new long[Camelot.POSITIONS][];
+        final CamelotIndex index = new CamelotIndex();
+        for (int code = 0; code < Camelot.POSITIONS; code++) {
+            ascendingKeys[code] = new long[known[code]];
+            descendingKeys[code] = new long[known[code]];
+            index.unknownBpm[code] = new int[unknown[code]];
+        }
+        Arrays.fill(known, 0);
+        Arrays.fill(unknown, 0);
+        for (int row = 0; row < table.size(); row++) {
+            final byte camelot = table.camelot(row);
+            if (camelot == Camelot.NONE) {
+                continue;
+            }
+            final float bpm = table.bpm(row);
+            if (Float.isNaN(bpm)) {
+                index.unknownBpm[camelot][unknown[camelot]++] = row;
+            } else {
+                final int bits = sortableBits(bpm);
+                ascendingKeys[camelot][known[camelot]] = ((long) bits << 32) | row;
+                descendingKeys[camelot][known[camelot]++] = ((long) ~bits << 32) | row;
+            }
+        }
+        for (int code = 0; code < Camelot.POSITIONS; code++) {
+            Arrays.sort(ascendingKeys[code]);
+            Arrays.sort(descendingKeys[code]);
+            final int size = ascendingKeys[code].length;
+            index.ascending[code] = new int[size];
+            index.descending[code] = new int[size];
+            index.ascendingBpm[code] = new float[size];
+            for (int i = 0; i < size; i++) {
+                index.ascending[code][i] = (int) ascendingKeys[code][i];
+                index.descending[code][i] = (int) descendingKeys[code][i];
+                index.ascendingBpm[code][i] = table.bpm(index.ascending[code][i]);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return Rows of the bucket with a known tempo, ascending by BPM, must not be modified
+     */
+    public int[] ascending(byte camelot) {
+        return this.ascending[camelot];
+    }
+
+    /**
+     * @return Rows of the bucket with a known tempo, descending by BPM, must not be modified
+     */
+    public int[] descending(byte camelot) {
+        return this.descending[camelot];
+    }
+
+    /**
+     * @return Rows of the bucket without tempo in row order, must not be modified
+     */
+    public int[] unknownBpm(byte camelot) {
+        return this.unknownBpm[camelot];
+    }
+
+    /**
+     * @return Number of rows in the ascending bucket with a tempo below the passed one
+     */
+    public int countBelow(byte camelot, float bpm) {
+        final float[] bpms = this.ascendingBpm[camelot];
+        int lo = 0;
+        int hi = bpms.length;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (bpms[middle] < bpm) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Maps float bits to ints with the same order as the float values.
+     */
+    private static int sortableBits(float value) {
+        final int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+}
@@ -0,0 +1,223 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.anefdev.flowtherockapp.util.Camelot;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Immutable index of all distinct tracks of a user's library, for "what mixes well after this track" queries.
+ * <br>
+ * Tracks are deduplicated by ID and bucketed by Camelot code, every bucket is sorted by BPM.
+ * A query only binary-searches the tempo windows of the seed's bucket and its harmonic buckets,
+ * at normal, half and double tempo, so its cost depends on the number of candidates, not on the library size.
+ * An index is built once by a {@link Builder} from all sources, readers never see a half-built one.
+ */
+public class LibraryIndex {
+
+    private static final float[] TEMPO_FACTORS = {1f, 2f, 0.5f};
+
+    private final Map<String, MusicTrack> tracks;
+    private final float[][] bucketBpm;
+    private final MusicTrack[][] bucketTracks;
+
+    private LibraryIndex(Map<String, MusicTrack> tracks, float[][] bucketBpm, MusicTrack[][] bucketTracks) {
+        this.tracks = tracks;
+        this.bucketBpm = bucketBpm;
+        this.bucketTracks = bucketTracks;
+    }
+
+    public static LibraryIndex empty() {
+        final float[][] bucketBpm = new float[Camelot.POSITIONS][0];
+        final MusicTrack[][] bucketTracks = new MusicTrack[Camelot.POSITIONS][0];
+        return new LibraryIndex(Map.of(), bucketBpm, bucketTracks);
+    }
+
+    public int size() {
+        return this.tracks.size();
+    }
+
+    public boolean contains(String trackId) {
+        return this.tracks.containsKey(trackId);
+    }
+
+    /**
+     * @return Builder of a new index
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Finds the tracks that mix best after the passed track.
+     * Candidates are in the same or a harmonic key and within the tempo tolerance at normal, half or double tempo.
+     * Each candidate scores its wheel step (0 same key, 1 harmonic key) plus its tempo deviation relative to the tolerance.
+     * @param trackId ID of the playing track
+     * @param limit Maximum number of tracks
+     * @param bpmTolerance Allowed relative tempo deviation, below 1/3 so the tempo windows do not overlap
+     * @return Best candidates, best first, or an empty list if the track is unknown or has no key or tempo
+     */
+    public List<MusicTrack> next(String trackId, int limit, float bpmTolerance) {
+        final MusicTrack seed = this.tracks.get(trackId);
+        if (seed == null || seed.getBpm() == null || limit <= 0) {
+            return List.of();
+        }
+        final byte seedCamelot = Camelot.encode(seed.getCamelot());
+        if (seedCamelot == Camelot.NONE) {
+            return List.of();
+        }
+        final float seedBpm = bpm(seed);
+
+        // Worst candidate on top, so the heap keeps the best ones
+        final PriorityQueue<Candidate> best = new PriorityQueue<>(Comparator.comparingDouble(Candidate::score).reversed());
+        for (byte code = 0; code < Camelot.POSITIONS; code++) {
+            if (!PlaylistParser.isHarmonic(seedCamelot, code)) {
+                continue;
+            }
+            final float keyStep = code == seedCamelot ? 0 : 1;
+            final float[] bpms = this.bucketBpm[code];
+            for (float factor : TEMPO_FACTORS) {
+                // Candidate tempo times factor has to be within the tolerance of the seed tempo
+                final float from = seedBpm * (1 - bpmTolerance) / factor;
+                final float to = seedBpm * (1 + bpmTolerance) / factor;
+                for (int i = lowerBound(bpms, from); i < bpms.length && bpms[i] <= to; i++) {
+                    final MusicTrack candidate = this.bucketTracks[code][i];
+                    if (candidate.getId().equals(trackId)) {
+                        continue;
+                    }
+                    final float deviation = Math.abs(bpms[i] * factor - seedBpm) / seedBpm;
+                    final float score = keyStep + (bpmTolerance > 0 ? deviation / bpmTolerance : 0);
+                    if (best.size() < limit) {
+                        best.add(new Candidate(candidate, score));
+                    } else if (score < best.peek().score()) {
+                        best.poll();
+                        best.add(new Candidate(candidate, score));
+                    }
+                }
+            }
+        }
+
+        final Candidate[] ranked = best.toArray(Candidate[]::new);
+        Arrays.sort(ranked, Comparator.comparingDouble(Candidate::score));
+        final List<MusicTrack> nextTracks = new ArrayList<>(ranked.length);
+        for (Candidate candidate : ranked) {
+            final MusicTrack track = PlaylistParser.copyTrack(candidate.track());
+            track.setMatched(true);
+            nextTracks.add(track);
+        }
+        return nextTracks;
+    }
+
+    private static int lowerBound(float[] values, float value) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (values[middle] < value) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private static float bpm(MusicTrack track) {
+        return Float.parseFloat(track.getBpm());
+    }
+
+    private record Candidate(MusicTrack track, float score) {
+    }
+
+    /**
+     * Collects the tracks of all sources and builds the index once at the end.
+     * Also remembers the track IDs that could not be resolved, so later sources do not request them again.
+     * Not thread-safe, a builder belongs to one build.
+     */
+    public static class Builder {
+
+        private final Map<String, MusicTrack> tracks = new HashMap<>();
+        private final Set<String> unresolved = new HashSet<>();
+        private final List<List<MusicTrack>> byBucket = new ArrayList<>(Camelot.POSITIONS);
+
+        private Builder() {
+            for (int code = 0; code < Camelot.POSITIONS; code++) {
+                this.byBucket.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * @return true if the track was added or could not be resolved before
+         */
+        public boolean isKnown(String trackId) {
+            return this.tracks.containsKey(trackId) || this.unresolved.contains(trackId);
+        }
+
+        public int size() {
+            return this.tracks.size();
+        }
+
+        /**
+         * Adds tracks not added yet.
+         * @param added Parsed tracks, duplicates and already added tracks are skipped
+         * @return This builder
+         */
+        public Builder add(Collection<MusicTrack> added) {
+            for (MusicTrack track : added) {
+                if (track.getId() == null || this.tracks.containsKey(track.getId())) {
+                    continue;
+                }
+                final MusicTrack indexed = PlaylistParser.copyTrack(track);
+                indexed.setMatched(false);
+                this.tracks.put(indexed.getId(), indexed);
+                this.unresolved.remove(indexed.getId());
+                final byte camelot = Camelot.encode(indexed.getCamelot());
+                if (camelot != Camelot.NONE && indexed.getBpm() != null) {
+                    this.byBucket.get(camelot).add(indexed);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Remembers tracks that could not be resolved, e.g. local files or tracks without audio features.
+         * @param trackIds IDs of the tracks
+         * @return This builder
+         */
+        public Builder addUnresolved(Collection<String> trackIds) {
+            trackIds.stream()
+                    .filter(trackId -> !this.tracks.containsKey(trackId))
+                    .forEach(this.unresolved::add);
+            return this;
+        }
+
+        /**
+         * Sorts every bucket by BPM once, tracks of the same BPM stay in the order they were added.
+         * @return Immutable index of all added tracks
+         */
+        public LibraryIndex build() {
+            final float[][] bucketBpm = new float[Camelot.POSITIONS][];
+            final MusicTrack[][] bucketTracks = new MusicTrack[Camelot.POSITIONS][];
+            for (int code = 0; code < Camelot.POSITIONS; code++) {
+                final MusicTrack[] sorted = this.byBucket.get(code).toArray(MusicTrack[]::new);
+                Arrays.sort(sorted, Comparator.comparingDouble(LibraryIndex::bpm));
+                final float[] bpms = new float[sorted.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    bpms[i] = bpm(sorted[i]);
+                }
+                bucketBpm[code] = bpms;
+                bucketTracks[code] = sorted;
+            }
+            return new LibraryIndex(Map.copyOf(this.tracks), bucketBpm, bucketTracks);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.anefdev.flowtherockapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LibraryIndexStatus {
+    // IDLE, BUILDING, READY or FAILED
+    private String state;
+    private int sourcesIndexed;
+    private int sourcesTotal;
+    private int tracks;
+}
@@ -13,5 +13,6 @@ public class MusicPlaylist {
      String title;
      Integer count;
      String imageUrl;
+     String snapshotId;
 
 }
@@ -22,5 +22,6 @@ public class MusicTrack implements Serializable {
     private String camelot;
     private boolean matched;
     private String previewUrl;
+    private Float energy;
 
 }
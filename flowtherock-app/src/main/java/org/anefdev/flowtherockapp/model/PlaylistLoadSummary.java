@@ -0,0 +1,14 @@
+package org.anefdev.flowtherockapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlaylistLoadSummary {
+    private String playlistId;
+    private int tracks;
+    private long elapsedMs;
+}
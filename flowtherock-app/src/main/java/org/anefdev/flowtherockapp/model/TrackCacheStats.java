@@ -0,0 +1,16 @@
+package org.anefdev.flowtherockapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrackCacheStats {
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long memorySize;
+    private long diskSize;
+}
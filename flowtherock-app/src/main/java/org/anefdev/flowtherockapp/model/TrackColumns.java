@@ -0,0 +1,115 @@
+package org.anefdev.flowtherockapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compact columnar JSON encoding of a track list, opt-in for clients loading large playlists.
+ * <br>
+ * Every field is one array with one entry per track, in list order. Artists, albums, keys, modes and Camelot codes
+ * repeat a lot, so they are dictionary encoded: the distinct values plus one index per track, -1 for null.
+ * Preview URLs share their common prefix. BPM is a number instead of a string.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrackColumns {
+
+    private int size;
+    private String[] id;
+    private String[] title;
+    private Dictionary artist;
+    private Dictionary album;
+    private Integer[] duration;
+    private Float[] bpm;
+    private Dictionary key;
+    private Dictionary mode;
+    private Dictionary camelot;
+    private boolean[] matched;
+    private String previewUrlPrefix;
+    private String[] previewUrl;
+    private Float[] energy;
+
+    /**
+     * Distinct values of a column and the index of every track's value.
+     */
+    public record Dictionary(List<String> values, int[] rows) {
+
+        static Dictionary of(List<MusicTrack> tracks, Function<MusicTrack, String> column) {
+            final List<String> values = new ArrayList<>();
+            final Map<String, Integer> indexes = new HashMap<>();
+            final int[] rows = new int[tracks.size()];
+            for (int row = 0; row < rows.length; row++) {
+                final String value = column.apply(tracks.get(row));
+                rows[row] = value == null ? -1 : indexes.computeIfAbsent(value, added -> {
+                    values.add(added);
+                    return values.size() - 1;
+                });
+            }
+            return new Dictionary(values, rows);
+        }
+    }
+
+    public static TrackColumns of(List<MusicTrack> tracks) {
+        final int size = tracks.size();
+        final String[] id = new String[size];
+        final String[] title = new String[size];
+        final Integer[] duration = new Integer[size];
+        final Float[] bpm = new Float[size];
+        final boolean[] matched = new boolean[size];
+        final Float[] energy = new Float[size];
+        for (int row = 0; row < size; row++) {
+            final MusicTrack track = tracks.get(row);
+            id[row] = track.getId();
+            title[row] = track.getTitle();
+            duration[row] = track.getDuration();
+            bpm[row] = track.getBpm() == null ? null : Float.parseFloat(track.getBpm());
+            matched[row] = track.isMatched();
+            energy[row] = track.getEnergy();
+        }
+
+        final String prefix = commonPrefix(tracks);
+        final String[] previewUrl = new String[size];
+        for (int row = 0; row < size; row++) {
+            final String url = tracks.get(row).getPreviewUrl();
+            previewUrl[row] = url == null ? null : url.substring(prefix.length());
+        }
+
+        return new TrackColumns(size, id, title,
+                Dictionary.of(tracks, MusicTrack::getArtist),
+                Dictionary.of(tracks, MusicTrack::getAlbum),
+                duration, bpm,
+                Dictionary.of(tracks, MusicTrack::getKey),
+                Dictionary.of(tracks, MusicTrack::getMode),
+                Dictionary.of(tracks, MusicTrack::getCamelot),
+                matched, prefix, previewUrl, energy);
+    }
+
+    private static String commonPrefix(List<MusicTrack> tracks) {
+        String prefix = null;
+        for (MusicTrack track : tracks) {
+            final String url = track.getPreviewUrl();
+            if (url == null) {
+                continue;
+            }
+            if (prefix == null) {
+                prefix = url;
+                continue;
+            }
+            int length = 0;
+            final int max = Math.min(prefix.length(), url.length());
+            while (length < max && prefix.charAt(length) == url.charAt(length)) {
+                length++;
+            }
+            prefix = prefix.substring(0, length);
+        }
+        return prefix == null ? "" : prefix;
+    }
+}
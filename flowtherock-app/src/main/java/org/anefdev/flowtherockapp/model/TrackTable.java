@@ -0,0 +1,159 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.anefdev.flowtherockapp.util.Camelot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar representation of a loaded playlist.
+ * <br>
+ * Sorting and matching read the primitive columns only, MusicTrack DTOs are built at the JSON boundary.
+ * Rows keep the playlist order, the ID table maps a track ID to its first row.
+ * The Camelot index over the rows is built together with the table.
+ * The version identifies the playlist content the table was built from, for conditional requests.
+ */
+public class TrackTable {
+
+    private final String[] ids;
+    private final float[] bpm;
+    private final byte[] camelot;
+    private final int[] durationMs;
+    private final float[] energy;
+    private final String[] title;
+    private final String[] artist;
+    private final String[] album;
+    private final String[] key;
+    private final String[] mode;
+    private final String[] previewUrl;
+    private final Map<String, Integer> rowById;
+    private CamelotIndex camelotIndex;
+    private String version;
+
+    private TrackTable(int size) {
+        this.ids = new String[size];
+        this.bpm = new float[size];
+        this.camelot = new byte[size];
+        this.durationMs = new int[size];
+        this.energy = new float[size];
+        this.title = new String[size];
+        this.artist = new String[size];
+        this.album = new String[size];
+        this.key = new String[size];
+        this.mode = new String[size];
+        this.previewUrl = new String[size];
+        this.rowById = new HashMap<>(size * 2);
+    }
+
+    public static TrackTable of(List<MusicTrack> tracks) {
+        return of(tracks, null);
+    }
+
+    /**
+     * @param tracks Tracks in playlist order
+     * @param version Version of the playlist content, null if unknown
+     */
+    public static TrackTable of(List<MusicTrack> tracks, String version) {
+        final TrackTable table = new TrackTable(tracks.size());
+        for (int row = 0; row < tracks.size(); row++) {
+            final MusicTrack track = tracks.get(row);
+            table.ids[row] = track.getId();
+            table.bpm[row] = track.getBpm() == null ? Float.NaN : Float.parseFloat(track.getBpm());
+            table.camelot[row] = Camelot.encode(track.getCamelot());
+            table.durationMs[row] = track.getDuration() == null ? -1 : track.getDuration();
+            table.energy[row] = track.getEnergy() == null ? Float.NaN : track.getEnergy();
+            table.title[row] = track.getTitle();
+            table.artist[row] = track.getArtist();
+            table.album[row] = track.getAlbum();
+            table.key[row] = track.getKey() == null ? null : track.getKey().intern();
+            table.mode[row] = track.getMode() == null ? null : track.getMode().intern();
+            table.previewUrl[row] = track.getPreviewUrl();
+            table.rowById.putIfAbsent(track.getId(), row);
+        }
+        table.camelotIndex = CamelotIndex.of(table);
+        table.version = version;
+        return table;
+    }
+
+    public static TrackTable empty() {
+        return of(List.of());
+    }
+
+    public int size() {
+        return this.ids.length;
+    }
+
+    /**
+     * @return First row of the track, or -1 if the track is not in the table
+     */
+    public int rowOf(String trackId) {
+        final Integer row = this.rowById.get(trackId);
+        return row == null ? -1 : row;
+    }
+
+    public CamelotIndex camelotIndex() {
+        return this.camelotIndex;
+    }
+
+    /**
+     * @return Version of the playlist content, null if unknown
+     */
+    public String version() {
+        return this.version;
+    }
+
+    public String id(int row) {
+        return this.ids[row];
+    }
+
+    public float bpm(int row) {
+        return this.bpm[row];
+    }
+
+    public byte camelot(int row) {
+        return this.camelot[row];
+    }
+
+    public int durationMs(int row) {
+        return this.durationMs[row];
+    }
+
+    /**
+     * @return Energy between 0 and 1, NaN if unknown
+     */
+    public float energy(int row) {
+        return this.energy[row];
+    }
+
+    /**
+     * Builds the DTO of a row.
+     */
+    public MusicTrack toTrack(int row, boolean matched) {
+        return new MusicTrack(
+                this.ids[row],
+                this.title[row],
+                this.artist[row],
+                this.album[row],
+                this.durationMs[row] < 0 ? null : this.durationMs[row],
+                Float.isNaN(this.bpm[row]) ? null : String.valueOf(this.bpm[row]),
+                this.key[row],
+                this.mode[row],
+                Camelot.decode(this.camelot[row]),
+                matched,
+                this.previewUrl[row],
+                Float.isNaN(this.energy[row]) ? null : this.energy[row]);
+    }
+
+    /**
+     * Builds the DTOs of all rows in playlist order.
+     */
+    public List<MusicTrack> toTracks() {
+        final List<MusicTrack> tracks = new ArrayList<>(this.size());
+        for (int row = 0; row < this.size(); row++) {
+            tracks.add(this.toTrack(row, false));
+        }
+        return tracks;
+    }
+}
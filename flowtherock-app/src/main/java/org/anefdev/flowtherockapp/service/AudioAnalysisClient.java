@@ -0,0 +1,115 @@
+package org.anefdev.flowtherockapp.service;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.util.AudioAnalysisParser;
+import org.anefdev.flowtherockapp.util.StructuredFutures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Fallback for tracks that have no audio features: reads tempo, key and mode from the full audio analysis.
+ * <br>
+ * The analysis is streamed and the response is closed right after its track section,
+ * so the bars, beats, segments and tatums behind it are not downloaded to the end or parsed.
+ * Requests go through the shared execution layer like all other Spotify requests.
+ */
+@Component
+public class AudioAnalysisClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AudioAnalysisClient.class);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient httpClient;
+    private final DefaultUriBuilderFactory uriFactory;
+    private final SpotifyRequestExecutor executor;
+    private final boolean enabled;
+
+    public AudioAnalysisClient(@Value("${spotify-api-base-url:https://api.spotify.com/v1}") String baseUrl,
+                               @Value("${spotify-analysis-fallback-enabled:true}") boolean enabled,
+                               SpotifyRequestExecutor executor) {
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build();
+        this.uriFactory = new DefaultUriBuilderFactory(baseUrl);
+        this.executor = executor;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Loads tempo, key and mode of the tracks from their audio analysis.
+     * Tracks that have no analysis are left out; throttling beyond the retries or a rejected token fails the load.
+     * <br>
+     * Async
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds IDs of the tracks
+     * @return Future of tracks with bpm, key and mode by track ID
+     */
+    public CompletableFuture<Map<String, MusicTrack>> loadTrackSections(SpotifyApi spotifyApi, List<String> trackIds) {
+        if (!this.enabled || trackIds.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        final Map<String, CompletableFuture<MusicTrack>> trackFutures = new HashMap<>();
+        for (String trackId : trackIds) {
+            trackFutures.put(trackId, this.executor
+                    .submitCall("audio-analysis", spotifyApi, () -> this.loadTrackSection(spotifyApi.getAccessToken(), trackId))
+                    .exceptionally(e -> {
+                        final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof TooManyRequestsException || cause instanceof UnauthorizedException) {
+                            throw new CompletionException(cause);
+                        }
+                        LOGGER.warn("loadTrackSections [ No audio analysis for track " + trackId + ": " + cause.getMessage() + " ]");
+                        return null;
+                    }));
+        }
+        final List<CompletableFuture<MusicTrack>> futures = List.copyOf(trackFutures.values());
+        return StructuredFutures.cancelling(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            final Map<String, MusicTrack> tracks = new HashMap<>();
+            trackFutures.forEach((trackId, trackFuture) -> {
+                if (trackFuture.join() != null) {
+                    tracks.put(trackId, trackFuture.join());
+                }
+            });
+            LOGGER.info("loadTrackSections [ Audio analysis: " + tracks.size() + " of " + trackIds.size() + " ]");
+            return tracks;
+        }), futures);
+    }
+
+    private MusicTrack loadTrackSection(String accessToken, String trackId) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(this.uriFactory.expand("/audio-analysis/{trackId}", trackId))
+                .header("Authorization", "Bearer " + accessToken)
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        final HttpResponse<InputStream> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        // Closing the body before its end aborts the rest of the download
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw error(response);
+            }
+            return AudioAnalysisParser.parseTrackSection(body);
+        }
+    }
+
+    private static SpotifyWebApiException error(HttpResponse<?> response) {
+        return SpotifyRequestExecutor.statusException(response.statusCode(), response.headers().firstValue("Retry-After").orElse(null),
+                "Audio analysis request failed with status " + response.statusCode());
+    }
+}
@@ -1,33 +1,53 @@
 package org.anefdev.flowtherockapp.service;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.NoArgsConstructor;
 import lombok.SneakyThrows;
 import org.anefdev.flowtherockapp.model.MusicPlaylist;
 import org.anefdev.flowtherockapp.model.MusicTrack;
 import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.anefdev.flowtherockapp.model.TrackCacheStats;
+import org.anefdev.flowtherockapp.model.TrackTable;
 import org.anefdev.flowtherockapp.util.PlaylistParser;
+import org.anefdev.flowtherockapp.util.SetSequencer;
+import org.anefdev.flowtherockapp.util.SingleFlight;
+import org.anefdev.flowtherockapp.util.StructuredFutures;
+import org.anefdev.flowtherockapp.util.ThreadModeExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.SpotifyHttpManager;
 import se.michaelthelin.spotify.enums.AuthorizationScope;
 import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
-import se.michaelthelin.spotify.model_objects.miscellaneous.AudioAnalysis;
 import se.michaelthelin.spotify.model_objects.specification.*;
-import se.michaelthelin.spotify.requests.authorization.authorization_code.AuthorizationCodeRequest;
+import se.michaelthelin.spotify.requests.IRequest;
 import se.michaelthelin.spotify.requests.authorization.authorization_code.AuthorizationCodeUriRequest;
-import se.michaelthelin.spotify.requests.data.playlists.GetListOfUsersPlaylistsRequest;
-import se.michaelthelin.spotify.requests.data.tracks.GetAudioAnalysisForTrackRequest;
-import se.michaelthelin.spotify.requests.data.tracks.GetTrackRequest;
-import se.michaelthelin.spotify.requests.data.users_profile.GetCurrentUsersProfileRequest;
 
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
 @Service
 @NoArgsConstructor
@@ -38,32 +58,76 @@ public class FlowTheRockService {
     private String CLIENT_SECRET;
     @Value("${spotify-callback-uri}")
     private String CALLBACK_URL;
-    private SpotifyApi spotifyApi;
-    private List<MusicPlaylist> allPlaylists;
-    private List<MusicTrack> playlistParsed;
-    private SpotifyUser currentUser;
+    @Value("${sequencer-time-budget-ms:300}")
+    private long SEQUENCER_TIME_BUDGET_MS;
+    @Value("${sequencer-key-weight:1.0}")
+    private float SEQUENCER_KEY_WEIGHT;
+    @Value("${sequencer-bpm-weight:0.1}")
+    private float SEQUENCER_BPM_WEIGHT;
+    @Value("${playlist-load-threads:16}")
+    private int PLAYLIST_LOAD_THREADS;
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean VIRTUAL_THREADS;
+    @Autowired
+    private SessionStore sessions;
+    @Autowired
+    private SpotifyRequestExecutor executor;
+    @Autowired
+    private TrackCache trackCache;
+    @Autowired
+    private PlaylistSnapshotStore snapshots;
+    @Autowired
+    private AudioAnalysisClient analysisClient;
+    @Autowired
+    private SpotifyTokenManager tokens;
+    @Autowired
+    private PipelineMetrics metrics;
+    private final SingleFlight<String, MusicTrack> trackFlights = new SingleFlight<>();
+    private final SingleFlight<PlaylistRequest, List<String>> playlistFlights = new SingleFlight<>();
+    private ExecutorService playlistLoaders;
     private static final Logger LOGGER = LoggerFactory.getLogger(FlowTheRockService.class);
+    // Spotify Web API limits for paging and the multi-ID endpoints
+    private static final int USERS_PLAYLISTS_PAGE_SIZE = 50;
+    private static final int PLAYLIST_ITEMS_PAGE_SIZE = 100;
+    private static final int SAVED_TRACKS_PAGE_SIZE = 50;
+    private static final int TRACKS_BATCH_SIZE = 50;
+    private static final int AUDIO_FEATURES_BATCH_SIZE = 100;
+
+    // SpotifyApi has identity equality, so a key never joins loads of another session
+    private record PlaylistRequest(SpotifyApi spotifyApi, String playlistId) {
+    }
+
+    @PostConstruct
+    void startPlaylistLoaders() {
+        playlistLoaders = ThreadModeExecutors.newExecutor(VIRTUAL_THREADS, "playlist-load-", PLAYLIST_LOAD_THREADS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        playlistLoaders.shutdownNow();
+    }
+
+    @PostConstruct
+    void registerMetrics() {
+        metrics.gauge("flowtherock.tracks.inflight", "Tracks being loaded from Spotify", trackFlights, SingleFlight::size);
+        metrics.gauge("flowtherock.playlists.inflight", "Playlists being downloaded from Spotify", playlistFlights, SingleFlight::size);
+    }
 
     /**
      * Gets URI for authorization with Spotify.
      * <br>
      * Sync
+     * @param state Random OAuth state, comes back with the callback and is checked against the user's browser
      * @return Authorization code URI
      */
-    public URI getAuthorisationCodeURI() {
+    public URI getAuthorisationCodeURI(String state) {
 
         LOGGER.info("getAuthorisationCodeURI [ Get authorization code URI ... ]");
-        final URI CALLBACK_URI = SpotifyHttpManager.makeUri(CALLBACK_URL);
-
-        this.spotifyApi = new SpotifyApi.Builder()
-                .setClientId(CLIENT_ID)
-                .setClientSecret(CLIENT_SECRET)
-                .setRedirectUri(CALLBACK_URI)
-                .build();
 
         final AuthorizationCodeUriRequest authorizationCodeUriRequest =
-                spotifyApi.authorizationCodeUri()
+                this.newSpotifyApi().authorizationCodeUri()
                 .scope(AuthorizationScope.USER_LIBRARY_READ,AuthorizationScope.USER_READ_PRIVATE, AuthorizationScope.USER_READ_EMAIL)
+                .state(state)
                 .show_dialog(true)
                 .build();
         var uri = authorizationCodeUriRequest.execute();
@@ -74,191 +138,585 @@ public class FlowTheRockService {
     }
 
     /**
-     * Gets and saves the access and refresh tokens in SpotifyApi object.
+     * Gets the access and refresh tokens and opens a new session for the user with them.
+     * The session ID is created only once the tokens were received, so it is never known before the login.
      * <br>
      * Sync
      * @param code Authorization code for Spotify
+     * @return ID of the new session
      */
     @SneakyThrows
-    public void setAuthorizationToken(String code) {
+    public String setAuthorizationToken(String code) {
 
         LOGGER.info("setAuthorizationToken [ Get authorization token ...");
-        LOGGER.info("setAuthorizationToken [ Authorization code: " + code + " ]");
 
-        final AuthorizationCodeRequest authorizationCodeRequest = spotifyApi.authorizationCode(code).build();
-        final AuthorizationCodeCredentials authorizationCodeCredentials = authorizationCodeRequest.execute();
+        final SpotifyApi spotifyApi = this.newSpotifyApi();
+        final AuthorizationCodeCredentials authorizationCodeCredentials = executor.execute("token",
+                () -> spotifyApi.authorizationCode(code).build());
         // Set access and refresh token for further "spotifyApi" object usage
         spotifyApi.setAccessToken(authorizationCodeCredentials.getAccessToken());
         spotifyApi.setRefreshToken(authorizationCodeCredentials.getRefreshToken());
+        final UserSession session = sessions.create(spotifyApi);
+        tokens.register(session.getId(), spotifyApi, authorizationCodeCredentials.getExpiresIn());
 
-        LOGGER.info("setAuthorizationToken [ Access token: " + spotifyApi.getAccessToken() + " ]");
-        LOGGER.info("setAuthorizationToken [ Refresh token: " + spotifyApi.getRefreshToken() + " ]");
+        LOGGER.info("setAuthorizationToken [ OK: session " + session.getId() + " ]");
+        return session.getId();
+
+    }
 
+    private SpotifyApi newSpotifyApi() {
+        return new SpotifyApi.Builder()
+                .setClientId(CLIENT_ID)
+                .setClientSecret(CLIENT_SECRET)
+                .setRedirectUri(SpotifyHttpManager.makeUri(CALLBACK_URL))
+                .build();
     }
 
     /**
      * Loads all playlists of the current user.
      * <br>
      * Sync
+     * @param sessionId ID of the user's session
      * @return List of user's playlists
      */
     @SneakyThrows
-    public List<MusicPlaylist> loadAllUsersPlaylists() {
+    public List<MusicPlaylist> loadAllUsersPlaylists(String sessionId) {
 
         LOGGER.info("loadAllUsersPlaylists [ Loading all user's playlists ... ]");
+        final UserSession session = sessions.get(sessionId);
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
         List<MusicPlaylist> allUserPlaylists;
 
-        final GetListOfUsersPlaylistsRequest getListOfUsersPlaylistsRequest = spotifyApi
-                .getListOfUsersPlaylists(this.currentUser.getId())
-                .build();
-        final Paging<PlaylistSimplified> playlistSimplifiedPaging = getListOfUsersPlaylistsRequest.execute();
-        final List<PlaylistSimplified>  allUserPlaylistsSimple = Arrays.stream(playlistSimplifiedPaging.getItems()).toList();
+        final String userId = this.loadUserData(sessionId).getId();
+        final List<PlaylistSimplified> allUserPlaylistsSimple = this.loadAllPages("users-playlists", spotifyApi, USERS_PLAYLISTS_PAGE_SIZE,
+                offset -> spotifyApi.getListOfUsersPlaylists(userId).limit(USERS_PLAYLISTS_PAGE_SIZE).offset(offset).build());
         allUserPlaylists = PlaylistParser.getAllPlaylists(allUserPlaylistsSimple);
 
-        this.allPlaylists = allUserPlaylists;
-        LOGGER.info("loadAllUsersPlaylists [ Playlists count: " + this.allPlaylists.size() + " ]");
+        session.setAllPlaylists(allUserPlaylists);
+        sessions.update(session);
+        LOGGER.info("loadAllUsersPlaylists [ Playlists count: " + allUserPlaylists.size() + " ]");
         LOGGER.info("loadAllUsersPlaylists [ OK ]");
 
-        return this.allPlaylists;
+        return allUserPlaylists;
     }
 
     /**
      * Loads playlist by passed ID.
      * <br>
      * Async
+     * @param sessionId ID of the user's session
      * @param playlistId ID of the playlist
      * @return List of MusicTrack playlist
      */
     @SneakyThrows
-    public List<MusicTrack> loadPlaylist(String playlistId) {
+    public List<MusicTrack> loadPlaylist(String sessionId, String playlistId) {
 
         LOGGER.info("loadPlaylist [ Loading playlist ... ]");
         LOGGER.info("loadPlaylist [ Playlist with ID: " + playlistId + " ]");
+        final UserSession session = sessions.get(sessionId);
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        final Timer.Sample load = metrics.start();
+
+        final List<String> trackIds = this.loadPlaylistTrackIds(spotifyApi, playlistId);
+
+        LOGGER.info("loadPlaylist [ Loading tracks-data ... ]");
+        final Map<String, MusicTrack> tracksParsed = this.resolveTracks(spotifyApi, trackIds);
+
+        final List<MusicTrack> tracksAnalyzed = this.storePlaylist(session, playlistId, trackIds, tracksParsed);
+        load.stop(metrics.playlistLoad("sync"));
+        LOGGER.info("loadPlaylist [ Tracks loaded: " + tracksAnalyzed.size() + " of " + trackIds.size() + " ]");
+        LOGGER.info("loadPlaylist [ OK ]");
+        return tracksAnalyzed;
+    }
+
+    /**
+     * Switches back to the playlist if it was loaded before in this session and did not change since,
+     * without downloading its items or resolving its tracks again.
+     * Only the playlist's snapshot ID is requested, and only if the session still has a table of the playlist.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @param playlistId ID of the playlist
+     * @return Table of the playlist, now the current one, or null if the playlist has to be loaded
+     */
+    public TrackTable switchToLoadedPlaylist(String sessionId, String playlistId) {
+        final UserSession session = sessions.get(sessionId);
+        final TrackTable table = session.getPlaylistTables().get(playlistId);
+        if (table == null || table.version() == null) {
+            return null;
+        }
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        final String snapshotId = executor.execute("playlist-snapshot", spotifyApi,
+                () -> spotifyApi.getPlaylist(playlistId).fields("snapshot_id").build()).getSnapshotId();
+        if (snapshotId == null || !table.version().equals(playlistVersion(playlistId, snapshotId, table.size()))) {
+            return null;
+        }
+        session.setPlaylistTable(playlistId, table);
+        sessions.update(session);
+        LOGGER.info("switchToLoadedPlaylist [ Snapshot unchanged, switched to " + table.size() + " loaded tracks ]");
+        return table;
+    }
+
+    /**
+     * Loads playlist by passed ID and emits every track as soon as its batch is analyzed.
+     * Cached tracks are emitted first, the rest in the order their batches resolve.
+     * Each distinct track is emitted once, the complete playlist is stored in the session at the end.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @param playlistId ID of the playlist
+     * @return Flux of MusicTrack
+     */
+    public Flux<MusicTrack> streamPlaylist(String sessionId, String playlistId) {
+
+        LOGGER.info("streamPlaylist [ Streaming playlist with ID: " + playlistId + " ]");
+        final UserSession session = sessions.get(sessionId);
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        final Timer.Sample load = metrics.start();
+
+        return Mono.fromCallable(() -> this.loadPlaylistTrackIds(spotifyApi, playlistId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(trackIds -> {
+                    final Map<String, MusicTrack> tracksParsed = new ConcurrentHashMap<>(trackCache.getAll(trackIds));
+                    final List<String> missingIds = this.getMissingIds(trackIds, tracksParsed);
+                    LOGGER.info("streamPlaylist [ Cached tracks: " + tracksParsed.size() + ", missing: " + missingIds.size() + " ]");
+
+                    final Flux<MusicTrack> tracksCached = Flux.fromIterable(List.copyOf(tracksParsed.values()));
+                    final Flux<MusicTrack> tracksLoaded = Flux.fromIterable(this.loadTracks(spotifyApi, missingIds))
+                            .flatMap(Mono::fromFuture)
+                            .flatMapIterable(batch -> batch)
+                            .doOnNext(track -> tracksParsed.put(track.getId(), track));
+
+                    return Flux.concat(tracksCached, tracksLoaded)
+                            .map(PlaylistParser::copyTrack)
+                            .doOnComplete(() -> {
+                                this.storePlaylist(session, playlistId, trackIds, tracksParsed);
+                                load.stop(metrics.playlistLoad("stream"));
+                                LOGGER.info("streamPlaylist [ OK ]");
+                            });
+                });
+    }
 
-        Paging<PlaylistTrack> playlist;
+    /**
+     * Loads all items of the playlist and extracts their track IDs in playlist order.
+     * The playlist's snapshot ID is checked first: if it did not change since the last load,
+     * the stored track IDs are returned without downloading the items again.
+     * <br>
+     * Sync
+     * @param spotifyApi Spotify client of the user
+     * @param playlistId ID of the playlist
+     * @return Track IDs of the playlist
+     */
+    @SneakyThrows
+    List<String> loadPlaylistTrackIds(SpotifyApi spotifyApi, String playlistId) {
+        // Concurrent loads of the same playlist by the same session share one download
+        final CompletableFuture<List<String>> trackIds = playlistFlights.execute(new PlaylistRequest(spotifyApi, playlistId),
+                () -> this.submitPlaylistSnapshot(spotifyApi, playlistId));
+        try {
+            return trackIds.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            // Leaves the flight, the download is cancelled when no other caller waits for it
+            trackIds.cancel(true);
+            throw e;
+        }
+    }
 
-        playlist = spotifyApi.getPlaylistsItems(playlistId)
-                    .build()
-                    .execute();
+    /**
+     * Downloads the track IDs of the playlist on the playlist load pool.
+     * <br>
+     * Async
+     * @return Future of the track IDs. Cancelling it interrupts the download, which cancels its Spotify requests
+     */
+    private CompletableFuture<List<String>> submitPlaylistSnapshot(SpotifyApi spotifyApi, String playlistId) {
+        final CompletableFuture<List<String>> trackIds = new CompletableFuture<>();
+        final Future<?> task = playlistLoaders.submit(() -> {
+            try {
+                trackIds.complete(this.loadPlaylistSnapshot(spotifyApi, playlistId));
+            } catch (Throwable e) {
+                trackIds.completeExceptionally(e);
+            }
+        });
+        trackIds.whenComplete((result, failure) -> {
+            if (trackIds.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return trackIds;
+    }
 
-        assert playlist != null;
-        LOGGER.info("loadPlaylist [ Loading playlist with size: " + playlist.getTotal() + " ]");
+    private List<String> loadPlaylistSnapshot(SpotifyApi spotifyApi, String playlistId) {
+        return metrics.stage("pagination").record(() -> this.loadPlaylistSnapshotPages(spotifyApi, playlistId));
+    }
 
-        var playlistFinal = new ArrayList<>(Arrays.stream(playlist.getItems()).toList());
-        while (playlist.getTotal() > playlistFinal.size()) {
-            var playlistPagination = spotifyApi.getPlaylistsItems(playlistId)
-                    .offset(playlistFinal.size())
-                    .build()
-                    .execute();
-            playlistFinal.addAll(Arrays.stream(playlistPagination.getItems()).toList());
+    private List<String> loadPlaylistSnapshotPages(SpotifyApi spotifyApi, String playlistId) {
+        final String snapshotId = executor.execute("playlist-snapshot", spotifyApi,
+                () -> spotifyApi.getPlaylist(playlistId).fields("snapshot_id").build()).getSnapshotId();
+        final PlaylistSnapshotStore.PlaylistSnapshot known = snapshots.get(playlistId);
+        if (known != null && snapshotId != null && snapshotId.equals(known.snapshotId())) {
+            LOGGER.info("loadPlaylistTrackIds [ Snapshot unchanged, " + known.trackIds().size() + " stored track-IDs ]");
+            return known.trackIds();
         }
 
-        LOGGER.info("loadPlaylist [ Extracting track-IDs ... ]");
-        var playlistNoMetaData = PlaylistParser.getTrackListNoMetaData(playlistFinal);
+        final List<String> trackIds = this.loadPlaylistItemTrackIds(spotifyApi, playlistId);
+        if (known != null) {
+            final Set<String> knownIds = new HashSet<>(known.trackIds());
+            final Set<String> currentIds = new HashSet<>(trackIds);
+            final long added = currentIds.stream().filter(trackId -> !knownIds.contains(trackId)).count();
+            final long removed = knownIds.stream().filter(trackId -> !currentIds.contains(trackId)).count();
+            // Retained tracks are served by the track cache, only added tracks need to be analyzed
+            LOGGER.info("loadPlaylistTrackIds [ Snapshot changed, added: " + added + ", removed: " + removed + " ]");
+        }
+        // The items may be newer than the snapshot ID read before them, at worst the next load downloads them again
+        if (snapshotId != null) {
+            snapshots.put(playlistId, new PlaylistSnapshotStore.PlaylistSnapshot(snapshotId, trackIds));
+        }
+        return trackIds;
+    }
 
+    private List<String> loadPlaylistItemTrackIds(SpotifyApi spotifyApi, String playlistId) {
+        final List<PlaylistTrack> playlistFinal = this.loadAllPages("playlist-items", spotifyApi, PLAYLIST_ITEMS_PAGE_SIZE,
+                offset -> spotifyApi.getPlaylistsItems(playlistId).limit(PLAYLIST_ITEMS_PAGE_SIZE).offset(offset).build());
+        LOGGER.info("loadPlaylistTrackIds [ Loaded playlist with size: " + playlistFinal.size() + " ]");
 
+        LOGGER.info("loadPlaylistTrackIds [ Extracting track-IDs ... ]");
+        return PlaylistParser.getTrackListNoMetaData(playlistFinal).stream()
+                .map(MusicTrack::getId)
+                .filter(Objects::nonNull)
+                .toList();
+    }
 
-        LOGGER.info("loadPlaylist [ Loading tracks-data ... ]");
-        var tracksAnalyzed = playlistNoMetaData.stream().map(
-                track -> {
-                    Track trackInfo = this.loadTrackInfo(track.getId());
-                    MusicTrack trackAnalysis = this.loadTrackAnalysis(track.getId());
-                    track =  PlaylistParser.parseTrackInfo(trackAnalysis, trackInfo);
-                    return PlaylistParser.parseTrackAnalysisKey(track);
+    /**
+     * Loads the IDs of the tracks saved in the user's library.
+     * <br>
+     * Sync
+     * @param spotifyApi Spotify client of the user
+     * @return Track IDs of the saved tracks
+     */
+    List<String> loadSavedTrackIds(SpotifyApi spotifyApi) {
+        final List<SavedTrack> savedTracks = this.loadAllPages("saved-tracks", spotifyApi, SAVED_TRACKS_PAGE_SIZE,
+                offset -> spotifyApi.getUsersSavedTracks().limit(SAVED_TRACKS_PAGE_SIZE).offset(offset).build());
+        LOGGER.info("loadSavedTrackIds [ Saved tracks: " + savedTracks.size() + " ]");
+        return savedTracks.stream()
+                .map(savedTrack -> savedTrack.getTrack() == null ? null : savedTrack.getTrack().getId())
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Resolves tracks from the track cache, loading missing tracks from Spotify.
+     * <br>
+     * Sync
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds IDs of the tracks
+     * @return Parsed tracks by track ID, tracks without track info or audio features are absent
+     */
+    Map<String, MusicTrack> resolveTracks(SpotifyApi spotifyApi, List<String> trackIds) {
+        final Map<String, MusicTrack> tracksParsed = trackCache.getAll(trackIds);
+        final List<String> missingIds = this.getMissingIds(trackIds, tracksParsed);
+        LOGGER.info("resolveTracks [ Cached tracks: " + tracksParsed.size() + ", missing: " + missingIds.size() + " ]");
+
+        // Batches run as forked siblings: a failing batch cancels the others
+        for (List<MusicTrack> batch : StructuredFutures.joinAll(this.loadTracks(spotifyApi, missingIds))) {
+            batch.forEach(track -> tracksParsed.put(track.getId(), track));
+        }
+        return tracksParsed;
+    }
+
+    private List<String> getMissingIds(List<String> trackIds, Map<String, MusicTrack> tracksParsed) {
+        return trackIds.stream()
+                .filter(trackId -> !tracksParsed.containsKey(trackId))
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Builds the playlist in its original order from the parsed tracks and stores it in the session.
+     * The playlist gets a version if its track IDs are the ones of the stored snapshot.
+     * <br>
+     * Sync
+     * @return Stored playlist
+     */
+    List<MusicTrack> storePlaylist(UserSession session, String playlistId, List<String> trackIds,
+                                           Map<String, MusicTrack> tracksParsed) {
+        final List<MusicTrack> tracksAnalyzed = trackIds.stream()
+                .filter(tracksParsed::containsKey)
+                .map(trackId -> PlaylistParser.copyTrack(tracksParsed.get(trackId)))
+                .toList();
+        // Same snapshot and same number of resolved tracks: same content, a load with failed tracks gets another version.
+        // The stored snapshot may already be newer than the loaded track IDs, then the version is unknown
+        final PlaylistSnapshotStore.PlaylistSnapshot snapshot = snapshots.get(playlistId);
+        final String version = snapshot == null || !snapshot.trackIds().equals(trackIds)
+                ? null
+                : playlistVersion(playlistId, snapshot.snapshotId(), tracksAnalyzed.size());
+        session.setPlaylistTable(playlistId, metrics.stage("table").record(() -> TrackTable.of(tracksAnalyzed, version)));
+        sessions.update(session);
+        metrics.recordPlaylistSize(tracksAnalyzed.size());
+        return tracksAnalyzed;
+    }
+
+    private static String playlistVersion(String playlistId, String snapshotId, int size) {
+        return playlistId + ":" + snapshotId + ":" + size;
+    }
+
+    /**
+     * Loads all pages of a paged Spotify endpoint.
+     * The first page reports the total, the remaining offsets are then fetched concurrently
+     * and stitched back together in order.
+     * <br>
+     * Async
+     * @param endpoint Name of the Spotify endpoint
+     * @param spotifyApi Spotify client of the user
+     * @param pageSize Items per page
+     * @param pageRequest Builds the request for the page at passed offset
+     * @return Items of all pages
+     */
+    private <T> List<T> loadAllPages(String endpoint, SpotifyApi spotifyApi, int pageSize,
+                                     IntFunction<? extends IRequest<Paging<T>>> pageRequest) {
+        final Paging<T> firstPage = executor.execute(endpoint, spotifyApi, () -> pageRequest.apply(0));
+        final List<T> items = new ArrayList<>(firstPage.getTotal());
+        items.addAll(Arrays.asList(firstPage.getItems()));
+
+        final List<CompletableFuture<Paging<T>>> pageFutures = new ArrayList<>();
+        for (int offset = pageSize; offset < firstPage.getTotal(); offset += pageSize) {
+            final int pageOffset = offset;
+            pageFutures.add(executor.submit(endpoint, spotifyApi, () -> pageRequest.apply(pageOffset)));
+        }
+        for (Paging<T> page : StructuredFutures.joinAll(pageFutures)) {
+            items.addAll(Arrays.asList(page.getItems()));
+        }
+
+        LOGGER.info("loadAllPages [ " + endpoint + ": " + items.size() + " items in " + (pageFutures.size() + 1) + " pages ]");
+        return items;
+    }
+
+    /**
+     * Loads and parses tracks by passed IDs.
+     * The IDs are split into batches of the audio features limit, every batch needs one audio features
+     * request and two several-tracks requests. Tracks already being loaded for a concurrent request
+     * are joined instead of requested again. Parsed tracks are stored in the track cache.
+     * <br>
+     * Async
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds Distinct IDs of the tracks
+     * @return Future of parsed tracks per batch
+     */
+    private List<CompletableFuture<List<MusicTrack>>> loadTracks(SpotifyApi spotifyApi, List<String> trackIds) {
+        return PlaylistParser.partition(trackIds, AUDIO_FEATURES_BATCH_SIZE)
+                .stream()
+                .map(batch -> {
+                    final List<CompletableFuture<MusicTrack>> trackFutures = List.copyOf(trackFlights
+                            .executeAll(batch, claimedIds -> this.loadTracksBatch(spotifyApi, claimedIds))
+                            .values());
+                    // Loaded tracks are shared by all waiting requests, every request gets its own copies
+                    return StructuredFutures.cancelling(CompletableFuture.allOf(trackFutures.toArray(CompletableFuture[]::new))
+                            .thenApply(done -> trackFutures.stream()
+                                    .map(CompletableFuture::join)
+                                    .filter(Objects::nonNull)
+                                    .map(PlaylistParser::copyTrack)
+                                    .toList()), trackFutures);
+                })
+                .toList();
+    }
+
+    /**
+     * Loads and parses one batch of tracks, at most the audio features limit.
+     * <br>
+     * Async
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds Distinct IDs of the tracks
+     * @return Future of parsed tracks by track ID, tracks without track info or audio features are absent
+     */
+    private CompletableFuture<Map<String, MusicTrack>> loadTracksBatch(SpotifyApi spotifyApi, List<String> trackIds) {
+        // A concurrent request may have cached some of the tracks since they were looked up
+        final Map<String, MusicTrack> tracksParsed = trackCache.getAll(trackIds);
+        final List<String> missingIds = this.getMissingIds(trackIds, tracksParsed);
+        if (missingIds.isEmpty()) {
+            return CompletableFuture.completedFuture(tracksParsed);
+        }
+        final Timer.Sample tracks = metrics.start();
+        final CompletableFuture<Map<String, AudioFeatures>> featuresFuture = this.loadTracksFeatures(spotifyApi, missingIds);
+        final CompletableFuture<Map<String, Track>> infoFuture = this.loadTracksInfo(spotifyApi, missingIds);
+        return StructuredFutures.cancelling(featuresFuture.thenCombine(infoFuture, (tracksFeatures, tracksInfo) -> {
+            tracks.stop(metrics.stage("tracks"));
+            final Map<String, MusicTrack> tracksAnalysis = new HashMap<>();
+            tracksFeatures.forEach((trackId, features) -> tracksAnalysis.put(trackId, PlaylistParser.convertAudioFeaturesToTrack(features)));
+            return tracksAnalysis;
+        }).thenCompose(tracksAnalysis -> {
+            // Tracks without audio features fall back to the track section of their audio analysis
+            final Map<String, Track> tracksInfo = infoFuture.join();
+            final List<String> withoutFeatures = missingIds.stream()
+                    .filter(trackId -> tracksInfo.containsKey(trackId) && !tracksAnalysis.containsKey(trackId))
+                    .toList();
+            final Timer.Sample analysis = metrics.start();
+            return analysisClient.loadTrackSections(spotifyApi, withoutFeatures).thenApply(trackSections -> {
+                if (!withoutFeatures.isEmpty()) {
+                    analysis.stop(metrics.stage("analysis"));
                 }
-        ).toList();
-        this.playlistParsed = tracksAnalyzed;
-        LOGGER.info("loadPlaylist [ OK ]");
-        return this.playlistParsed;
+                tracksAnalysis.putAll(trackSections);
+                final List<MusicTrack> tracksLoaded = metrics.stage("parsing").record(() -> missingIds.stream()
+                        .filter(trackId -> tracksInfo.containsKey(trackId) && tracksAnalysis.containsKey(trackId))
+                        .map(trackId -> {
+                            var track = PlaylistParser.parseTrackInfo(tracksAnalysis.get(trackId), tracksInfo.get(trackId));
+                            return PlaylistParser.parseTrackAnalysisKey(track);
+                        })
+                        .toList());
+                trackCache.putAll(tracksLoaded);
+                tracksLoaded.forEach(track -> tracksParsed.put(track.getId(), track));
+                return tracksParsed;
+            });
+        }), List.of(featuresFuture, infoFuture));
     }
 
     /**
-     * Loads song info by passed track ID.
+     * Loads songs info for passed track IDs, several tracks per request.
      * <br>
      * Async
-     * @param trackId ID of the track
-     * @return Track song info
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds IDs of the tracks
+     * @return Future of Track song info by track ID
      */
-    @SneakyThrows
-    private Track loadTrackInfo(String trackId) {
-        LOGGER.info("loadTrackInfo [ Loading song info ... ]");
-        final GetTrackRequest getTrackRequest = spotifyApi.getTrack(trackId).build();
-        final CompletableFuture<Track> trackFuture = getTrackRequest.executeAsync();
-        final Track track = trackFuture.join();
-        LOGGER.info("loadTrackInfo [ Song: " + track.toString() + " ]");
-        LOGGER.info("loadTrackInfo [ OK ]");
-        return track;
+    private CompletableFuture<Map<String, Track>> loadTracksInfo(SpotifyApi spotifyApi, List<String> trackIds) {
+        final List<CompletableFuture<Track[]>> batchFutures = PlaylistParser.partition(trackIds, TRACKS_BATCH_SIZE)
+                .stream()
+                .map(batch -> executor.submit("tracks", spotifyApi,
+                        () -> spotifyApi.getSeveralTracks(batch.toArray(String[]::new)).build()))
+                .toList();
+
+        return StructuredFutures.cancelling(CompletableFuture.allOf(batchFutures.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            final Map<String, Track> tracks = new HashMap<>();
+            for (CompletableFuture<Track[]> batchFuture : batchFutures) {
+                for (Track track : batchFuture.join()) {
+                    if (track != null) {
+                        tracks.put(track.getId(), track);
+                    }
+                }
+            }
+            LOGGER.info("loadTracksInfo [ Songs: " + tracks.size() + " in " + batchFutures.size() + " requests ]");
+            return tracks;
+        }), batchFutures);
     }
 
     /**
-     * Loads audio analysis by passed track ID.
+     * Loads audio features for passed track IDs in one request.
      * <br>
      * Async
-     * @param trackId ID of the track
-     * @return MusicTrack audio analysis
+     * @param spotifyApi Spotify client of the user
+     * @param trackIds IDs of the tracks, at most the audio features limit
+     * @return Future of AudioFeatures by track ID
      */
-    @SneakyThrows
-    private MusicTrack loadTrackAnalysis(String trackId) {
-        LOGGER.info("loadTrackAnalysis [ Loading audio analysis ... ]");
-        final GetAudioAnalysisForTrackRequest getTrackAnalysisRequest = spotifyApi.getAudioAnalysisForTrack(trackId).build();
-        final CompletableFuture<AudioAnalysis> audioAnalysisFuture = getTrackAnalysisRequest.executeAsync();
-        final AudioAnalysis audioAnalysis = audioAnalysisFuture.join();
-        LOGGER.info("loadTrackAnalysis [ Audio analysis: " + audioAnalysis.toString() + " ]");
-        LOGGER.info("loadTrackAnalysis [ OK ]");
-        return PlaylistParser.convertTrackAnalysisToTrack(audioAnalysis);
+    private CompletableFuture<Map<String, AudioFeatures>> loadTracksFeatures(SpotifyApi spotifyApi, List<String> trackIds) {
+        final CompletableFuture<AudioFeatures[]> featuresFuture = executor.submit("audio-features", spotifyApi,
+                () -> spotifyApi.getAudioFeaturesForSeveralTracks(trackIds.toArray(String[]::new)).build());
+        return StructuredFutures.cancelling(featuresFuture.thenApply(audioFeaturesArray -> {
+            final Map<String, AudioFeatures> features = new HashMap<>();
+            for (AudioFeatures audioFeatures : audioFeaturesArray) {
+                if (audioFeatures != null) {
+                    features.put(audioFeatures.getId(), audioFeatures);
+                }
+            }
+            LOGGER.info("loadTracksFeatures [ Audio features: " + features.size() + " of " + trackIds.size() + " ]");
+            return features;
+        }), List.of(featuresFuture));
+    }
+
+    /**
+     * Gets the version of the current playlist, it changes whenever another playlist or playlist content is loaded.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @return Version of the current playlist, null if unknown
+     */
+    public String getPlaylistVersion(String sessionId) {
+        return sessions.get(sessionId).getPlaylistTable().version();
     }
 
     /**
      * Sorts current playlist via Camelot wheel by passed track id.
      * <br>
      * Sync
+     * @param sessionId ID of the user's session
      * @param trackId String id of current song
      * @return sorted playlist
      */
-    public List<MusicTrack> sortPlaylist(String trackId) {
+    public List<MusicTrack> sortPlaylist(String sessionId, String trackId) {
 
         LOGGER.info("sortPlaylist [ Sorting playlist ... ]");
-        LOGGER.info("sortPlaylist [ Removing all matched tags ... ]");
 
-        for (MusicTrack track: this.playlistParsed) {
-            track.setMatched(false);
+        // The loaded playlist table is read-only, matched tags only exist on the returned DTOs
+        final TrackTable playlist = sessions.get(sessionId).getPlaylistTable();
+        if (playlist.rowOf(trackId) < 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Track " + trackId + " is not in the loaded playlist");
         }
 
-        LOGGER.info("sortPlaylist [ Sorting playlist ... ]");
+        final List<MusicTrack> playlistFinal = metrics.stage("sort").record(() -> PlaylistParser.sortPlaylist(playlist, trackId));
+
         LOGGER.info("sortPlaylist [ OK ]");
 
-        return PlaylistParser.sortPlaylist(this.playlistParsed, trackId);
+        return playlistFinal;
+    }
+
+    /**
+     * Orders the whole current playlist as a DJ set starting at passed track id.
+     * Transitions are weighted by Camelot wheel distance, BPM jump and optionally energy jump.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @param trackId String id of the first song of the set
+     * @param energyWeight Weight of energy jumps, 0 ignores energy
+     * @return sequenced playlist, a track is matched if the transition into it is harmonic
+     */
+    public List<MusicTrack> sequencePlaylist(String sessionId, String trackId, float energyWeight) {
+
+        LOGGER.info("sequencePlaylist [ Sequencing playlist ... ]");
+
+        final TrackTable playlist = sessions.get(sessionId).getPlaylistTable();
+        if (playlist.rowOf(trackId) < 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Track " + trackId + " is not in the loaded playlist");
+        }
+        final long started = System.currentTimeMillis();
+        final List<MusicTrack> playlistFinal = metrics.stage("sequence").record(() -> SetSequencer.sequencePlaylist(playlist, trackId,
+                SEQUENCER_KEY_WEIGHT, SEQUENCER_BPM_WEIGHT, Math.max(0, energyWeight), SEQUENCER_TIME_BUDGET_MS));
+
+        LOGGER.info("sequencePlaylist [ OK: " + playlistFinal.size() + " tracks in " + (System.currentTimeMillis() - started) + " ms ]");
+
+        return playlistFinal;
+    }
+
+    /**
+     * Gets hit and miss counters of the track cache.
+     * <br>
+     * Sync
+     * @return track cache statistics
+     */
+    public TrackCacheStats getTrackCacheStats() {
+        return trackCache.getStats();
     }
 
     /**
      * Loads curren Spotify user's data
      * <br>
      * Sync
+     * @param sessionId ID of the user's session
      * @return current user's data
      */
     @SneakyThrows
-    public SpotifyUser loadUserData() {
+    public SpotifyUser loadUserData(String sessionId) {
 
         LOGGER.info("loadUserData [ Loading user data ...]");
+        final UserSession session = sessions.get(sessionId);
 
-        if (this.currentUser == null) {
-            final GetCurrentUsersProfileRequest getCurrentUsersProfileRequest = spotifyApi
-                    .getCurrentUsersProfile()
-                    .build();
-
-            final User user = getCurrentUsersProfileRequest.execute();
+        if (session.getCurrentUser() == null) {
+            final User user = executor.execute("current-users-profile", session.getSpotifyApi(),
+                    () -> session.getSpotifyApi().getCurrentUsersProfile().build());
             LOGGER.info("loadUserData []");
-            this.currentUser = new SpotifyUser(
-                    user.getId(),
-                    user.getEmail(),
-                    user.getDisplayName(),
-                    user.getImages()[0].getUrl(),
-                    user.getUri());
+            session.setCurrentUser(PlaylistParser.getUser(user));
         }
 
-        LOGGER.info("loadUserData [ Current user: " + this.currentUser + "]");
+        LOGGER.info("loadUserData [ Current user: " + session.getCurrentUser() + "]");
         LOGGER.info("loadUserData [ OK ]");
 
-        return this.currentUser;
+        return session.getCurrentUser();
     }
 }
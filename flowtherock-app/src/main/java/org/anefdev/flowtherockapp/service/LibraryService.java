@@ -0,0 +1,156 @@
+package org.anefdev.flowtherockapp.service;
+
+import jakarta.annotation.PreDestroy;
+import org.anefdev.flowtherockapp.model.LibraryIndex;
+import org.anefdev.flowtherockapp.model.LibraryIndexStatus;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.util.ThreadModeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Library-wide index of a user's saved tracks and the tracks of all their playlists.
+ * <br>
+ * The index is built in the background, one source (saved tracks or a playlist) at a time.
+ * All sources go into one builder and the finished index is published in the session at the end,
+ * until then queries use the previous index.
+ */
+@Service
+public class LibraryService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LibraryService.class);
+    // Tempo windows of normal, half and double tempo must not overlap
+    private static final float MAX_BPM_TOLERANCE = 0.3f;
+
+    @Autowired
+    private FlowTheRockService service;
+    @Autowired
+    private SessionStore sessions;
+
+    private final ExecutorService builders;
+    private final float bpmTolerance;
+    private final int maxResults;
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+    public LibraryService(@Value("${library-index-builder-threads:2}") int builderThreads,
+                          @Value("${library-index-bpm-tolerance:0.06}") float bpmTolerance,
+                          @Value("${library-index-max-results:50}") int maxResults,
+                          @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.builders = ThreadModeExecutors.newExecutor(virtualThreads, "library-index-", builderThreads);
+        this.bpmTolerance = Math.min(Math.max(0, bpmTolerance), MAX_BPM_TOLERANCE);
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Starts building the library index of the user in the background, unless a build is already running.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @return Current status of the index
+     */
+    public LibraryIndexStatus buildIndex(String sessionId) {
+        final UserSession session = sessions.get(sessionId);
+        if (building.add(session.getId())) {
+            session.setLibraryIndexStatus(new LibraryIndexStatus("BUILDING", 0, 0, session.getLibraryIndex().size()));
+            builders.execute(() -> {
+                try {
+                    this.indexLibrary(session);
+                } catch (Exception e) {
+                    LOGGER.warn("buildIndex [ Library index of session " + session.getId() + " failed: " + e.getMessage() + " ]");
+                    final LibraryIndexStatus status = session.getLibraryIndexStatus();
+                    session.setLibraryIndexStatus(new LibraryIndexStatus("FAILED",
+                            status.getSourcesIndexed(), status.getSourcesTotal(), status.getTracks()));
+                } finally {
+                    building.remove(session.getId());
+                }
+            });
+        }
+        return session.getLibraryIndexStatus();
+    }
+
+    /**
+     * Gets the build status of the user's library index.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @return Status of the index
+     */
+    public LibraryIndexStatus getIndexStatus(String sessionId) {
+        return sessions.get(sessionId).getLibraryIndexStatus();
+    }
+
+    /**
+     * Finds the tracks of the user's library that mix well after the passed track.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @param trackId ID of the playing track
+     * @param limit Maximum number of tracks
+     * @return Best matching tracks, best first
+     */
+    public List<MusicTrack> findNextTracks(String sessionId, String trackId, int limit) {
+        final LibraryIndex index = sessions.get(sessionId).getLibraryIndex();
+        if (!index.contains(trackId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Track " + trackId + " is not in the library index");
+        }
+        final List<MusicTrack> nextTracks = index.next(trackId, Math.min(limit, maxResults), bpmTolerance);
+        LOGGER.info("findNextTracks [ " + nextTracks.size() + " tracks after " + trackId + " in " + index.size() + " indexed ]");
+        return nextTracks;
+    }
+
+    /**
+     * Indexes saved tracks first, then every playlist. Tracks already added or not resolvable are not resolved again.
+     * <br>
+     * Sync
+     */
+    private void indexLibrary(UserSession session) {
+        LOGGER.info("indexLibrary [ Building library index ... ]");
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        final List<MusicPlaylist> playlists = service.loadAllUsersPlaylists(session.getId());
+        final int sourcesTotal = playlists.size() + 1;
+        final LibraryIndex.Builder builder = LibraryIndex.builder();
+
+        this.indexSource(session, builder, this.service.loadSavedTrackIds(spotifyApi), 1, sourcesTotal);
+        for (int i = 0; i < playlists.size(); i++) {
+            final List<String> trackIds = this.service.loadPlaylistTrackIds(spotifyApi, playlists.get(i).getId());
+            this.indexSource(session, builder, trackIds, i + 2, sourcesTotal);
+        }
+
+        final LibraryIndex index = builder.build();
+        session.setLibraryIndex(index);
+        sessions.update(session);
+        session.setLibraryIndexStatus(new LibraryIndexStatus("READY", sourcesTotal, sourcesTotal, index.size()));
+        LOGGER.info("indexLibrary [ OK: " + index.size() + " tracks ]");
+    }
+
+    private void indexSource(UserSession session, LibraryIndex.Builder builder, List<String> trackIds,
+                             int sourcesIndexed, int sourcesTotal) {
+        final List<String> newIds = trackIds.stream()
+                .filter(trackId -> !builder.isKnown(trackId))
+                .distinct()
+                .toList();
+        if (!newIds.isEmpty()) {
+            final Map<String, MusicTrack> tracksParsed = this.service.resolveTracks(session.getSpotifyApi(), newIds);
+            builder.add(tracksParsed.values()).addUnresolved(newIds);
+        }
+        session.setLibraryIndexStatus(new LibraryIndexStatus("BUILDING", sourcesIndexed, sourcesTotal, builder.size()));
+    }
+
+    @PreDestroy
+    public void close() {
+        this.builders.shutdownNow();
+    }
+}
@@ -0,0 +1,102 @@
+package org.anefdev.flowtherockapp.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Names and histogram settings of the meters of the playlist load pipeline, exposed by Actuator at /actuator/prometheus.
+ * <br>
+ * Stage timers split a load into pagination, tracks (track info and audio features per batch), analysis (audio analysis
+ * fallback), parsing and table (building the playlist table), sorting is timed as sort and sequence. So a slow load
+ * can be attributed to Spotify or to our own code, the JVM meters of Actuator (e.g. jvm.gc.pause) cover garbage collection.
+ * Every Spotify request attempt is timed by endpoint and status.
+ */
+@Component
+public class PipelineMetrics {
+
+    private final MeterRegistry registry;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param stage Name of the stage
+     * @return Timer of the stage
+     */
+    public Timer stage(String stage) {
+        return Timer.builder("flowtherock.load.stage")
+                .description("Duration of a stage of the playlist load pipeline")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(this.registry);
+    }
+
+    /**
+     * @param mode Load mode, sync, stream or reactive
+     * @return Timer of complete playlist loads
+     */
+    public Timer playlistLoad(String mode) {
+        return Timer.builder("flowtherock.playlist.load")
+                .description("Duration of a complete playlist load")
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(this.registry);
+    }
+
+    /**
+     * @return Started sample, stopped with a timer when an async stage completes
+     */
+    public Timer.Sample start() {
+        return Timer.start(this.registry);
+    }
+
+    /**
+     * Records one attempt of a Spotify request, retried attempts are recorded separately.
+     * @param endpoint Name of the Spotify endpoint
+     * @param status HTTP status of the response, or the error for failures without response
+     * @param latencyNanos Duration of the attempt
+     */
+    public void recordSpotifyRequest(String endpoint, String status, long latencyNanos) {
+        Timer.builder("flowtherock.spotify.requests")
+                .description("Spotify Web API request attempts")
+                .tag("endpoint", endpoint)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(this.registry)
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param tracks Number of tracks of a loaded playlist
+     */
+    public void recordPlaylistSize(int tracks) {
+        DistributionSummary.builder("flowtherock.playlist.size")
+                .description("Number of tracks of loaded playlists")
+                .baseUnit("tracks")
+                .publishPercentileHistogram()
+                .register(this.registry)
+                .record(tracks);
+    }
+
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .tags(tags)
+                .register(this.registry);
+    }
+
+    public <T> void counter(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        FunctionCounter.builder(name, source, value)
+                .description(description)
+                .tags(tags)
+                .register(this.registry);
+    }
+}
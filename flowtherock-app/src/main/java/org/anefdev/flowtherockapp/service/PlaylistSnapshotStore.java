@@ -0,0 +1,46 @@
+package org.anefdev.flowtherockapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Track IDs of loaded playlists keyed by playlist ID, tagged with the playlist's Spotify snapshot ID.
+ * <br>
+ * Spotify changes the snapshot ID with every change of the playlist, so while the snapshot ID is unchanged
+ * the stored track IDs are current and the playlist items do not need to be downloaded again.
+ * The store is capped by the total number of stored track IDs.
+ */
+@Component
+public class PlaylistSnapshotStore {
+
+    private final Cache<String, PlaylistSnapshot> snapshots;
+
+    public PlaylistSnapshotStore(@Value("${playlist-snapshot-max-tracks:2000000}") long maxTracks) {
+        this.snapshots = Caffeine.newBuilder()
+                .maximumWeight(maxTracks)
+                .weigher((String playlistId, PlaylistSnapshot snapshot) -> 1 + snapshot.trackIds().size())
+                .build();
+    }
+
+    /**
+     * @return Stored snapshot of the playlist, or null if the playlist was not loaded yet or was evicted
+     */
+    public PlaylistSnapshot get(String playlistId) {
+        return this.snapshots.getIfPresent(playlistId);
+    }
+
+    public void put(String playlistId, PlaylistSnapshot snapshot) {
+        this.snapshots.put(playlistId, snapshot);
+    }
+
+    public record PlaylistSnapshot(String snapshotId, List<String> trackIds) {
+
+        public PlaylistSnapshot {
+            trackIds = List.copyOf(trackIds);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.anefdev.flowtherockapp.service;
+
+import io.micrometer.core.instrument.Timer;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+import org.anefdev.flowtherockapp.util.SingleFlight;
+import org.anefdev.flowtherockapp.util.StructuredFutures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Non-blocking variant of FlowTheRockService on SpotifyReactiveClient.
+ * <br>
+ * Shares sessions, the track cache, the playlist snapshots and the audio analysis fallback with the blocking service,
+ * so both paths can be mixed per user. Loaded playlists are stored by the blocking service, so they get the same
+ * version for conditional requests. Concurrent loads of the same playlist by a session and of the same tracks
+ * share one download within this path.
+ */
+@Service
+public class ReactiveFlowTheRockService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveFlowTheRockService.class);
+    // Spotify Web API limits for paging and the multi-ID endpoints
+    private static final int USERS_PLAYLISTS_PAGE_SIZE = 50;
+    private static final int PLAYLIST_ITEMS_PAGE_SIZE = 100;
+    private static final int TRACKS_BATCH_SIZE = 50;
+    private static final int AUDIO_FEATURES_BATCH_SIZE = 100;
+
+    @Autowired
+    private SpotifyReactiveClient client;
+    @Autowired
+    private SessionStore sessions;
+    @Autowired
+    private TrackCache trackCache;
+    @Autowired
+    private PlaylistSnapshotStore snapshots;
+    @Autowired
+    private AudioAnalysisClient analysisClient;
+    @Autowired
+    private FlowTheRockService flowService;
+    @Autowired
+    private PipelineMetrics metrics;
+    private final SingleFlight<String, MusicTrack> trackFlights = new SingleFlight<>();
+    private final SingleFlight<PlaylistRequest, List<String>> playlistFlights = new SingleFlight<>();
+
+    // SpotifyApi has identity equality, so a key never joins loads of another session
+    private record PlaylistRequest(SpotifyApi spotifyApi, String playlistId) {
+    }
+
+    /**
+     * Loads current Spotify user's data.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @return current user's data
+     */
+    public Mono<SpotifyUser> loadUserData(String sessionId) {
+        final UserSession session = sessions.get(sessionId);
+        if (session.getCurrentUser() != null) {
+            return Mono.just(session.getCurrentUser());
+        }
+        return client.getCurrentUsersProfile(session.getSpotifyApi())
+                .map(PlaylistParser::getUser)
+                .doOnNext(session::setCurrentUser);
+    }
+
+    /**
+     * Loads all playlists of the current user.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @return Flux of user's playlists
+     */
+    public Flux<MusicPlaylist> loadAllUsersPlaylists(String sessionId) {
+        final UserSession session = sessions.get(sessionId);
+        final List<MusicPlaylist> allUserPlaylists = Collections.synchronizedList(new ArrayList<>());
+
+        return this.loadUserData(sessionId)
+                .flatMapMany(user -> client.getListOfUsersPlaylists(session.getSpotifyApi(), user.getId(), USERS_PLAYLISTS_PAGE_SIZE))
+                .map(playlist -> PlaylistParser.getAllPlaylists(List.of(playlist)).get(0))
+                .doOnNext(allUserPlaylists::add)
+                .doOnComplete(() -> {
+                    session.setAllPlaylists(List.copyOf(allUserPlaylists));
+                    sessions.update(session);
+                    LOGGER.info("loadAllUsersPlaylists [ Playlists count: " + allUserPlaylists.size() + " ]");
+                });
+    }
+
+    /**
+     * Loads playlist by passed ID.
+     * Batches of tracks are resolved concurrently but emitted in playlist order,
+     * the number of batches in flight is bounded by the client concurrency.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @param playlistId ID of the playlist
+     * @return Flux of MusicTrack in playlist order
+     */
+    public Flux<MusicTrack> loadPlaylist(String sessionId, String playlistId) {
+        final UserSession session = sessions.get(sessionId);
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        final Timer.Sample load = metrics.start();
+
+        return Mono.fromFuture(() -> playlistFlights.execute(new PlaylistRequest(spotifyApi, playlistId),
+                        () -> this.loadPlaylistTrackIds(spotifyApi, playlistId).toFuture()))
+                .flatMapMany(trackIds -> {
+                    final Map<String, MusicTrack> tracksParsed = new ConcurrentHashMap<>();
+                    return Flux.fromIterable(PlaylistParser.partition(trackIds, AUDIO_FEATURES_BATCH_SIZE))
+                            .flatMapSequential(batch -> this.loadTracksBatch(spotifyApi, batch), client.getConcurrency())
+                            .flatMapIterable(batch -> batch)
+                            .doOnNext(track -> tracksParsed.put(track.getId(), track))
+                            .doOnComplete(() -> {
+                                final List<MusicTrack> tracksAnalyzed = flowService.storePlaylist(session, playlistId, trackIds, tracksParsed);
+                                load.stop(metrics.playlistLoad("reactive"));
+                                LOGGER.info("loadPlaylist [ Tracks loaded: " + tracksAnalyzed.size() + " of " + trackIds.size() + " ]");
+                            });
+                });
+    }
+
+    /**
+     * Loads the track IDs of the playlist in playlist order, from the stored snapshot if its snapshot ID is unchanged.
+     * <br>
+     * Async
+     * @return Mono of the track IDs
+     */
+    private Mono<List<String>> loadPlaylistTrackIds(SpotifyApi spotifyApi, String playlistId) {
+        return client.getPlaylistSnapshot(spotifyApi, playlistId).flatMap(playlist -> {
+            final String snapshotId = playlist.getSnapshotId();
+            final PlaylistSnapshotStore.PlaylistSnapshot known = snapshots.get(playlistId);
+            if (known != null && snapshotId != null && snapshotId.equals(known.snapshotId())) {
+                LOGGER.info("loadPlaylistTrackIds [ Snapshot unchanged, " + known.trackIds().size() + " stored track-IDs ]");
+                return Mono.just(known.trackIds());
+            }
+            return client.getPlaylistsItems(spotifyApi, playlistId, PLAYLIST_ITEMS_PAGE_SIZE)
+                    .map(playlistTrack -> playlistTrack.getTrack() == null ? "" : Objects.toString(playlistTrack.getTrack().getId(), ""))
+                    .filter(trackId -> !trackId.isEmpty())
+                    .collectList()
+                    .doOnNext(trackIds -> {
+                        // The items may be newer than the snapshot ID read before them, at worst the next load downloads them again
+                        if (snapshotId != null) {
+                            snapshots.put(playlistId, new PlaylistSnapshotStore.PlaylistSnapshot(snapshotId, trackIds));
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Resolves one batch of track IDs from the track cache, loading missing tracks from Spotify.
+     * Tracks already being loaded by another request are joined instead of loaded again.
+     * <br>
+     * Async
+     * @return Mono of parsed tracks in batch order
+     */
+    private Mono<List<MusicTrack>> loadTracksBatch(SpotifyApi spotifyApi, List<String> trackIds) {
+        return Mono.fromCallable(() -> trackCache.getAll(trackIds))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(tracksParsed -> {
+                    final List<String> missingIds = trackIds.stream()
+                            .filter(trackId -> !tracksParsed.containsKey(trackId))
+                            .distinct()
+                            .toList();
+                    if (missingIds.isEmpty()) {
+                        return Mono.just(tracksParsed);
+                    }
+                    final Map<String, CompletableFuture<MusicTrack>> trackFutures = trackFlights.executeAll(missingIds,
+                            claimedIds -> this.loadMissingTracks(spotifyApi, claimedIds).toFuture());
+                    final List<CompletableFuture<MusicTrack>> futures = List.copyOf(trackFutures.values());
+                    return Mono.fromFuture(() -> StructuredFutures.cancelling(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                            .thenApply(done -> {
+                                trackFutures.forEach((trackId, trackFuture) -> {
+                                    if (trackFuture.join() != null) {
+                                        tracksParsed.put(trackId, trackFuture.join());
+                                    }
+                                });
+                                return tracksParsed;
+                            }), futures));
+                })
+                .map(tracksParsed -> trackIds.stream()
+                        .filter(tracksParsed::containsKey)
+                        .map(trackId -> PlaylistParser.copyTrack(tracksParsed.get(trackId)))
+                        .toList());
+    }
+
+    /**
+     * Loads and parses tracks missing in the track cache, tracks without audio features fall back to their audio analysis.
+     * <br>
+     * Async
+     * @return Mono of parsed tracks by track ID, tracks without track info or analysis are absent
+     */
+    private Mono<Map<String, MusicTrack>> loadMissingTracks(SpotifyApi spotifyApi, List<String> trackIds) {
+        final Mono<Map<String, AudioFeatures>> featuresMono = client.getAudioFeaturesForSeveralTracks(spotifyApi, trackIds)
+                .map(features -> this.toMap(features, AudioFeatures::getId));
+        final Mono<Map<String, Track>> infoMono = Flux.fromIterable(PlaylistParser.partition(trackIds, TRACKS_BATCH_SIZE))
+                .flatMap(tracksBatch -> client.getSeveralTracks(spotifyApi, tracksBatch))
+                .collectList()
+                .map(tracksBatches -> this.toMap(tracksBatches.stream().flatMap(List::stream).toList(), Track::getId));
+
+        return Mono.zip(featuresMono, infoMono).flatMap(loaded -> {
+            final Map<String, Track> tracksInfo = loaded.getT2();
+            final Map<String, MusicTrack> tracksAnalysis = new HashMap<>();
+            loaded.getT1().forEach((trackId, features) -> tracksAnalysis.put(trackId, PlaylistParser.convertAudioFeaturesToTrack(features)));
+            final List<String> withoutFeatures = trackIds.stream()
+                    .filter(trackId -> tracksInfo.containsKey(trackId) && !tracksAnalysis.containsKey(trackId))
+                    .toList();
+            return Mono.fromFuture(() -> analysisClient.loadTrackSections(spotifyApi, withoutFeatures))
+                    .publishOn(Schedulers.boundedElastic())
+                    .map(trackSections -> {
+                        tracksAnalysis.putAll(trackSections);
+                        final Map<String, MusicTrack> tracksLoaded = new HashMap<>();
+                        trackIds.stream()
+                                .filter(trackId -> tracksInfo.containsKey(trackId) && tracksAnalysis.containsKey(trackId))
+                                .forEach(trackId -> {
+                                    var track = PlaylistParser.parseTrackInfo(tracksAnalysis.get(trackId), tracksInfo.get(trackId));
+                                    tracksLoaded.put(trackId, PlaylistParser.parseTrackAnalysisKey(track));
+                                });
+                        trackCache.putAll(tracksLoaded.values());
+                        return tracksLoaded;
+                    });
+        });
+    }
+
+    private <T> Map<String, T> toMap(List<T> items, Function<T, String> id) {
+        final Map<String, T> byId = new HashMap<>();
+        for (T item : items) {
+            if (item != null) {
+                byId.put(id.apply(item), item);
+            }
+        }
+        return byId;
+    }
+}
@@ -0,0 +1,99 @@
+package org.anefdev.flowtherockapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Concurrent store of user sessions keyed by session ID.
+ * <br>
+ * Sessions expire after a period without access and the store is capped by the total
+ * session weight, so loaded playlists of idle users do not pile up on the heap.
+ */
+@Component
+public class SessionStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStore.class);
+
+    private final Cache<String, UserSession> sessions;
+
+    public SessionStore(@Value("${session-store-ttl-minutes:60}") long ttlMinutes,
+                        @Value("${session-store-max-weight:2000000}") long maxWeight,
+                        PipelineMetrics metrics) {
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(ttlMinutes))
+                .maximumWeight(maxWeight)
+                .weigher((String id, UserSession session) -> session.getWeight())
+                .removalListener((String id, UserSession session, RemovalCause cause) ->
+                        LOGGER.info("SessionStore [ Session removed: " + id + ", cause: " + cause + " ]"))
+                .build();
+        metrics.gauge("flowtherock.sessions", "Active user sessions", this, SessionStore::size);
+    }
+
+    /**
+     * Creates and stores a new session with its own Spotify client.
+     * <br>
+     * Sync
+     * @param spotifyApi Spotify client of the session
+     * @return New session
+     */
+    public UserSession create(SpotifyApi spotifyApi) {
+        final UserSession session = new UserSession(UUID.randomUUID().toString(), spotifyApi);
+        this.sessions.put(session.getId(), session);
+        return session;
+    }
+
+    /**
+     * Gets the session by passed ID.
+     * <br>
+     * Sync
+     * @param sessionId ID of the session
+     * @return Session
+     * @throws ResponseStatusException 401 if the session is unknown or expired
+     */
+    public UserSession get(String sessionId) {
+        final UserSession session = sessionId == null ? null : this.sessions.getIfPresent(sessionId);
+        if (session == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unknown or expired session");
+        }
+        return session;
+    }
+
+    /**
+     * Gets the session by passed ID without counting as an access, so background work does not keep it alive.
+     * <br>
+     * Sync
+     * @param sessionId ID of the session
+     * @return Session, or null if the session is unknown or expired
+     */
+    public UserSession peek(String sessionId) {
+        return this.sessions.policy().getIfPresentQuietly(sessionId);
+    }
+
+    /**
+     * Stores the session again so that its weight is recalculated after its content changed.
+     * <br>
+     * Sync
+     * @param session Changed session
+     */
+    public void update(UserSession session) {
+        this.sessions.asMap().replace(session.getId(), session);
+    }
+
+    /**
+     * @return Number of active sessions
+     */
+    public long size() {
+        return this.sessions.estimatedSize();
+    }
+}
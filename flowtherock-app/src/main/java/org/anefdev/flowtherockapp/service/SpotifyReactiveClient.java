@@ -0,0 +1,145 @@
+package org.anefdev.flowtherockapp.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.UriBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Playlist;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+import se.michaelthelin.spotify.model_objects.specification.User;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Non-blocking Spotify Web API client on WebClient.
+ * <br>
+ * Responses are parsed with the model objects of spotify-web-api-java, so the blocking and
+ * the reactive path share PlaylistParser. Connections come from a bounded pool. Every request is admitted by
+ * the shared execution layer without blocking, so it counts against the same window, waits out the same
+ * Retry-After pause and is retried with a refreshed token on 401 like the requests of the blocking path.
+ */
+@Component
+public class SpotifyReactiveClient {
+
+    private static final int MAX_RESPONSE_SIZE = 4 * 1024 * 1024;
+
+    private final WebClient webClient;
+    private final int pageConcurrency;
+    private final SpotifyRequestExecutor executor;
+
+    public SpotifyReactiveClient(@Value("${spotify-api-base-url:https://api.spotify.com/v1}") String baseUrl,
+                                 @Value("${spotify-reactive-max-connections:100}") int maxConnections,
+                                 @Value("${spotify-reactive-concurrency:8}") int pageConcurrency,
+                                 SpotifyRequestExecutor executor) {
+        final ConnectionProvider connectionProvider = ConnectionProvider.builder("spotify")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(-1)
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+        this.webClient = WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider).compress(true)))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(MAX_RESPONSE_SIZE))
+                .build();
+        this.pageConcurrency = pageConcurrency;
+        this.executor = executor;
+    }
+
+    /**
+     * @return Number of requests run concurrently per paged endpoint or batched load
+     */
+    public int getConcurrency() {
+        return this.pageConcurrency;
+    }
+
+    public Mono<User> getCurrentUsersProfile(SpotifyApi spotifyApi) {
+        return this.get(spotifyApi, "current-users-profile", uri -> uri.path("/me").build())
+                .map(json -> new User.JsonUtil().createModelObject(json));
+    }
+
+    public Flux<PlaylistSimplified> getListOfUsersPlaylists(SpotifyApi spotifyApi, String userId, int pageSize) {
+        return this.getAllPages(pageSize,
+                offset -> this.get(spotifyApi, "users-playlists", uri -> uri.path("/users/{userId}/playlists")
+                                .queryParam("limit", pageSize)
+                                .queryParam("offset", offset)
+                                .build(userId))
+                        .map(json -> new PlaylistSimplified.JsonUtil().createModelObjectPaging(json)));
+    }
+
+    /**
+     * @return Playlist with its snapshot ID only
+     */
+    public Mono<Playlist> getPlaylistSnapshot(SpotifyApi spotifyApi, String playlistId) {
+        return this.get(spotifyApi, "playlist-snapshot", uri -> uri.path("/playlists/{playlistId}")
+                        .queryParam("fields", "snapshot_id")
+                        .build(playlistId))
+                .map(json -> new Playlist.JsonUtil().createModelObject(json));
+    }
+
+    public Flux<PlaylistTrack> getPlaylistsItems(SpotifyApi spotifyApi, String playlistId, int pageSize) {
+        return this.getAllPages(pageSize,
+                offset -> this.get(spotifyApi, "playlist-items", uri -> uri.path("/playlists/{playlistId}/tracks")
+                                .queryParam("limit", pageSize)
+                                .queryParam("offset", offset)
+                                .build(playlistId))
+                        .map(json -> new PlaylistTrack.JsonUtil().createModelObjectPaging(json)));
+    }
+
+    public Mono<List<Track>> getSeveralTracks(SpotifyApi spotifyApi, List<String> trackIds) {
+        return this.get(spotifyApi, "tracks", uri -> uri.path("/tracks")
+                        .queryParam("ids", String.join(",", trackIds))
+                        .build())
+                .map(json -> Arrays.asList(new Track.JsonUtil().createModelObjectArray(json, "tracks")));
+    }
+
+    public Mono<List<AudioFeatures>> getAudioFeaturesForSeveralTracks(SpotifyApi spotifyApi, List<String> trackIds) {
+        return this.get(spotifyApi, "audio-features", uri -> uri.path("/audio-features")
+                        .queryParam("ids", String.join(",", trackIds))
+                        .build())
+                .map(json -> Arrays.asList(new AudioFeatures.JsonUtil().createModelObjectArray(json, "audio_features")));
+    }
+
+    /**
+     * Reads the first page for the total, then the remaining pages concurrently, emitted in page order.
+     */
+    private <T> Flux<T> getAllPages(int pageSize, Function<Integer, Mono<Paging<T>>> page) {
+        return page.apply(0).flatMapMany(firstPage -> {
+            final int remainingPages = (firstPage.getTotal() - 1) / pageSize;
+            return Flux.fromArray(firstPage.getItems())
+                    .concatWith(Flux.range(1, Math.max(0, remainingPages))
+                            .flatMapSequential(pageIndex -> page.apply(pageIndex * pageSize), this.pageConcurrency)
+                            .flatMapIterable(nextPage -> Arrays.asList(nextPage.getItems())));
+        });
+    }
+
+    /**
+     * @param spotifyApi Spotify client of the user, every attempt is sent with its current token
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param uri Builds the URI from a template, so IDs are encoded as path segments and query values
+     */
+    private Mono<String> get(SpotifyApi spotifyApi, String endpoint, Function<UriBuilder, URI> uri) {
+        return Mono.fromFuture(() -> this.executor.submitAsync(endpoint, spotifyApi, () -> this.webClient.get()
+                .uri(uri)
+                .headers(headers -> headers.setBearerAuth(spotifyApi.getAccessToken()))
+                .retrieve()
+                .bodyToMono(String.class)
+                .onErrorMap(WebClientResponseException.class, e -> SpotifyRequestExecutor.statusException(
+                        e.getStatusCode().value(), e.getHeaders().getFirst("Retry-After"), e.getMessage()))
+                .toFuture()));
+    }
+}
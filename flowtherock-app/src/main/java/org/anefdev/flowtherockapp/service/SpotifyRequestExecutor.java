@@ -0,0 +1,513 @@
+package org.anefdev.flowtherockapp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import org.anefdev.flowtherockapp.util.ThreadModeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.BadGatewayException;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.ForbiddenException;
+import se.michaelthelin.spotify.exceptions.detailed.InternalServerErrorException;
+import se.michaelthelin.spotify.exceptions.detailed.NotFoundException;
+import se.michaelthelin.spotify.exceptions.detailed.ServiceUnavailableException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+import se.michaelthelin.spotify.requests.IRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Shared outbound execution layer for all Spotify Web API requests.
+ * <br>
+ * Requests run concurrently up to an adaptive limit: the window grows additively while
+ * responses are fast and shrinks multiplicatively on 429 responses or slow responses.
+ * A 429 also pauses all outgoing requests for the Retry-After period before the request is retried.
+ * A 401 of a user's request refreshes the user's access token and retries the request once.
+ * Non-blocking calls wait for their slot in a queue instead of on a thread and share the same window.
+ */
+@Component
+public class SpotifyRequestExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpotifyRequestExecutor.class);
+    private static final double SLOW_RESPONSE_DECREASE_FACTOR = 0.9;
+    private static final double THROTTLED_DECREASE_FACTOR = 0.5;
+
+    private final ExecutorService workers;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long latencyThresholdNanos;
+    private final int maxRetries;
+    private final SpotifyTokenManager tokens;
+    private final PipelineMetrics metrics;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitsChanged = lock.newCondition();
+    private final Deque<CompletableFuture<Void>> asyncWaiters = new ArrayDeque<>();
+    private boolean wakeUpScheduled;
+    private double window;
+    private int inFlight;
+    private long pausedUntilNanos;
+
+    public SpotifyRequestExecutor(@Value("${spotify-executor-min-concurrency:2}") int minConcurrency,
+                                  @Value("${spotify-executor-max-concurrency:16}") int maxConcurrency,
+                                  @Value("${spotify-executor-latency-threshold-ms:1500}") long latencyThresholdMs,
+                                  @Value("${spotify-executor-max-retries:3}") int maxRetries,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                  SpotifyTokenManager tokens,
+                                  PipelineMetrics metrics) {
+        this.minConcurrency = Math.max(1, minConcurrency);
+        this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        this.maxRetries = maxRetries;
+        this.tokens = tokens;
+        this.metrics = metrics;
+        this.window = this.minConcurrency;
+        this.pausedUntilNanos = System.nanoTime();
+        this.workers = ThreadModeExecutors.newExecutor(virtualThreads, "spotify-request-", this.maxConcurrency);
+        metrics.gauge("flowtherock.spotify.inflight", "Spotify requests currently sent", this, SpotifyRequestExecutor::getInFlight);
+        metrics.gauge("flowtherock.spotify.window", "Current concurrency window for Spotify requests", this, SpotifyRequestExecutor::getLimit);
+    }
+
+    /**
+     * Submits a request for concurrent execution.
+     * <br>
+     * Async
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param request Builds the request; called again for every retry
+     * @return Future completed with the response, or exceptionally with the Spotify error.
+     * Cancelling the future interrupts the request if it is still waiting or running
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, Supplier<? extends IRequest<T>> request) {
+        return this.submit(endpoint, null, request);
+    }
+
+    /**
+     * Submits a request of a user for concurrent execution.
+     * <br>
+     * Async
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param spotifyApi Spotify client the request is built with, its token is refreshed on 401
+     * @param request Builds the request from the client; called again for every retry
+     * @return Future completed with the response, or exceptionally with the Spotify error.
+     * Cancelling the future interrupts the request if it is still waiting or running
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, SpotifyApi spotifyApi, Supplier<? extends IRequest<T>> request) {
+        return this.submitCall(endpoint, spotifyApi, () -> request.get().execute());
+    }
+
+    /**
+     * Submits a call of a user that is not built with the Spotify client, e.g. a streamed request, for concurrent execution.
+     * The call shares the window, the Retry-After pause and the token refresh with all other requests,
+     * so it has to report a 429 as TooManyRequestsException and a 401 as UnauthorizedException.
+     * <br>
+     * Async
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param spotifyApi Spotify client of the user, its token is refreshed on 401
+     * @param call Sends the request with the current token of the client; called again for every retry
+     * @return Future completed with the response, or exceptionally with the error of the call.
+     * Cancelling the future interrupts the call if it is still waiting or running
+     */
+    public <T> CompletableFuture<T> submitCall(String endpoint, SpotifyApi spotifyApi, Call<T> call) {
+        final CompletableFuture<T> response = new CompletableFuture<>();
+        final Future<?> task = this.workers.submit(() -> {
+            try {
+                response.complete(this.executeWithRetries(endpoint, spotifyApi, call));
+            } catch (Throwable e) {
+                response.completeExceptionally(e);
+            }
+        });
+        response.whenComplete((result, failure) -> {
+            if (response.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Submits a non-blocking call of a user, e.g. a WebClient request. The call waits for its slot without holding
+     * a thread and shares the window, the Retry-After pause and the token refresh with all other requests,
+     * so it has to report a 429 as TooManyRequestsException and a 401 as UnauthorizedException.
+     * <br>
+     * Async
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param spotifyApi Spotify client of the user, its token is refreshed on 401
+     * @param call Sends the request with the current token of the client; called again for every retry
+     * @return Future completed with the response, or exceptionally with the error of the call.
+     * Cancelling the future cancels the call if it is still waiting or running
+     */
+    public <T> CompletableFuture<T> submitAsync(String endpoint, SpotifyApi spotifyApi, AsyncCall<T> call) {
+        final CompletableFuture<T> response = new CompletableFuture<>();
+        this.attemptAsync(endpoint, spotifyApi, call, response, 0, false);
+        return response;
+    }
+
+    /**
+     * Executes a request on the shared execution layer and waits for the response.
+     * <br>
+     * Sync
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param request Builds the request; called again for every retry
+     * @return Response of the request
+     */
+    public <T> T execute(String endpoint, Supplier<? extends IRequest<T>> request) {
+        return this.execute(endpoint, null, request);
+    }
+
+    /**
+     * Executes a request of a user on the shared execution layer and waits for the response.
+     * <br>
+     * Sync
+     * @param endpoint Name of the Spotify endpoint, used for logging
+     * @param spotifyApi Spotify client the request is built with, its token is refreshed on 401
+     * @param request Builds the request from the client; called again for every retry
+     * @return Response of the request
+     */
+    @SneakyThrows
+    public <T> T execute(String endpoint, SpotifyApi spotifyApi, Supplier<? extends IRequest<T>> request) {
+        final CompletableFuture<T> response = this.submit(endpoint, spotifyApi, request);
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            // The request is cancelled together with its caller
+            response.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * @return Current size of the concurrency window
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) this.window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of requests currently sent to Spotify
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.workers.shutdownNow();
+    }
+
+    /**
+     * Request to the Spotify Web API, sent once per attempt.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws Exception;
+    }
+
+    /**
+     * Non-blocking request to the Spotify Web API, sent once per attempt.
+     */
+    @FunctionalInterface
+    public interface AsyncCall<T> {
+        CompletableFuture<T> send();
+    }
+
+    /**
+     * Maps an error status of a request that is not sent by the Spotify client to the exception the Spotify client
+     * throws for it, so the request is retried and counted the same way.
+     * @param retryAfter Retry-After header of the response, null if absent
+     */
+    static SpotifyWebApiException statusException(int status, String retryAfter, String message) {
+        return switch (status) {
+            case 400 -> new BadRequestException(message);
+            case 401 -> new UnauthorizedException(message);
+            case 403 -> new ForbiddenException(message);
+            case 404 -> new NotFoundException(message);
+            case 429 -> new TooManyRequestsException(message,
+                    retryAfter != null && !retryAfter.isEmpty() && retryAfter.chars().allMatch(Character::isDigit)
+                            ? Integer.parseInt(retryAfter)
+                            : 0);
+            case 500 -> new InternalServerErrorException(message);
+            case 502 -> new BadGatewayException(message);
+            case 503 -> new ServiceUnavailableException(message);
+            default -> new SpotifyWebApiException(message);
+        };
+    }
+
+    @SneakyThrows
+    private <T> T executeWithRetries(String endpoint, SpotifyApi spotifyApi, Call<T> call) {
+        int attempt = 0;
+        boolean refreshed = false;
+        while (true) {
+            this.acquire();
+            final String accessToken = spotifyApi == null ? null : spotifyApi.getAccessToken();
+            final long started = System.nanoTime();
+            try {
+                final T response = call.execute();
+                final long latency = System.nanoTime() - started;
+                this.metrics.recordSpotifyRequest(endpoint, "200", latency);
+                this.onSuccess(latency);
+                return response;
+            } catch (TooManyRequestsException e) {
+                this.metrics.recordSpotifyRequest(endpoint, "429", System.nanoTime() - started);
+                this.onThrottled(e.getRetryAfter());
+                if (++attempt > this.maxRetries) {
+                    LOGGER.info("executeWithRetries [ " + endpoint + " throttled, giving up after " + attempt + " attempts ]");
+                    throw e;
+                }
+                LOGGER.info("executeWithRetries [ " + endpoint + " throttled, retry after " + e.getRetryAfter() + " s ]");
+            } catch (UnauthorizedException e) {
+                this.metrics.recordSpotifyRequest(endpoint, "401", System.nanoTime() - started);
+                this.onFailure();
+                // The token is refreshed outside of the window, the retry rebuilds the request with the new token
+                if (spotifyApi == null || refreshed || !this.tokens.refreshRejected(spotifyApi, accessToken)) {
+                    throw e;
+                }
+                refreshed = true;
+                LOGGER.info("executeWithRetries [ " + endpoint + " unauthorized, retry with refreshed token ]");
+            } catch (Throwable e) {
+                // Errors too, every failure has to give its slot back to the window
+                this.onFailure();
+                this.metrics.recordSpotifyRequest(endpoint, status(e), System.nanoTime() - started);
+                throw e;
+            }
+        }
+    }
+
+    private <T> void attemptAsync(String endpoint, SpotifyApi spotifyApi, AsyncCall<T> call,
+                                  CompletableFuture<T> response, int attempt, boolean refreshed) {
+        final CompletableFuture<Void> permit = this.acquireAsync();
+        // A call cancelled while it waits leaves the queue
+        response.whenComplete((result, failure) -> permit.cancel(false));
+        permit.thenRun(() -> {
+            if (response.isDone()) {
+                this.onFailure();
+                return;
+            }
+            final String accessToken = spotifyApi == null ? null : spotifyApi.getAccessToken();
+            final long started = System.nanoTime();
+            CompletableFuture<T> sent;
+            try {
+                sent = call.send();
+            } catch (Throwable e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            final CompletableFuture<T> request = sent;
+            response.whenComplete((result, failure) -> {
+                if (response.isCancelled()) {
+                    request.cancel(true);
+                }
+            });
+            request.whenComplete((result, failure) -> {
+                final long latency = System.nanoTime() - started;
+                final Throwable e = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                if (e == null) {
+                    this.metrics.recordSpotifyRequest(endpoint, "200", latency);
+                    this.onSuccess(latency);
+                    response.complete(result);
+                } else if (e instanceof TooManyRequestsException throttled) {
+                    this.metrics.recordSpotifyRequest(endpoint, "429", latency);
+                    this.onThrottled(throttled.getRetryAfter());
+                    if (attempt + 1 > this.maxRetries) {
+                        LOGGER.info("attemptAsync [ " + endpoint + " throttled, giving up after " + (attempt + 1) + " attempts ]");
+                        response.completeExceptionally(e);
+                    } else {
+                        LOGGER.info("attemptAsync [ " + endpoint + " throttled, retry after " + throttled.getRetryAfter() + " s ]");
+                        this.attemptAsync(endpoint, spotifyApi, call, response, attempt + 1, refreshed);
+                    }
+                } else if (e instanceof UnauthorizedException) {
+                    this.metrics.recordSpotifyRequest(endpoint, "401", latency);
+                    this.onFailure();
+                    if (spotifyApi == null || refreshed) {
+                        response.completeExceptionally(e);
+                        return;
+                    }
+                    // The refresh blocks, so it runs on a worker instead of the thread that completed the call
+                    CompletableFuture.supplyAsync(() -> this.tokens.refreshRejected(spotifyApi, accessToken), this.workers)
+                            .whenComplete((renewed, refreshFailure) -> {
+                                if (Boolean.TRUE.equals(renewed)) {
+                                    LOGGER.info("attemptAsync [ " + endpoint + " unauthorized, retry with refreshed token ]");
+                                    this.attemptAsync(endpoint, spotifyApi, call, response, attempt, true);
+                                } else {
+                                    response.completeExceptionally(e);
+                                }
+                            });
+                } else {
+                    this.metrics.recordSpotifyRequest(endpoint, status(e), latency);
+                    this.onFailure();
+                    response.completeExceptionally(e);
+                }
+            });
+        });
+    }
+
+    private static String status(Throwable e) {
+        if (e instanceof BadRequestException) {
+            return "400";
+        } else if (e instanceof ForbiddenException) {
+            return "403";
+        } else if (e instanceof NotFoundException) {
+            return "404";
+        } else if (e instanceof InternalServerErrorException) {
+            return "500";
+        } else if (e instanceof BadGatewayException) {
+            return "502";
+        } else if (e instanceof ServiceUnavailableException) {
+            return "503";
+        } else if (e instanceof SpotifyWebApiException) {
+            return "api-error";
+        }
+        // No response: I/O failure, interrupted, unparsable response or an error of the JVM
+        return "io-error";
+    }
+
+    private void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                final long pause = this.pausedUntilNanos - System.nanoTime();
+                if (pause > 0) {
+                    permitsChanged.awaitNanos(pause);
+                } else if (this.inFlight >= (int) this.window) {
+                    permitsChanged.await();
+                } else {
+                    this.inFlight++;
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<Void> acquireAsync() {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        lock.lock();
+        try {
+            this.asyncWaiters.add(permit);
+        } finally {
+            lock.unlock();
+        }
+        this.grantAsyncWaiters();
+        return permit;
+    }
+
+    /**
+     * Hands free slots of the window to the waiting non-blocking calls in arrival order.
+     * While requests are paused, a wake-up is scheduled for the end of the pause.
+     */
+    private void grantAsyncWaiters() {
+        final List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!this.asyncWaiters.isEmpty()) {
+                final long pause = this.pausedUntilNanos - System.nanoTime();
+                if (pause > 0) {
+                    if (!this.wakeUpScheduled) {
+                        this.wakeUpScheduled = true;
+                        CompletableFuture.delayedExecutor(pause, TimeUnit.NANOSECONDS).execute(this::wakeUp);
+                    }
+                    break;
+                }
+                if (this.inFlight >= (int) this.window) {
+                    break;
+                }
+                final CompletableFuture<Void> permit = this.asyncWaiters.poll();
+                if (!permit.isDone()) {
+                    this.inFlight++;
+                    granted.add(permit);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Completed outside of the lock, completing a permit sends its call
+        for (CompletableFuture<Void> permit : granted) {
+            if (!permit.complete(null)) {
+                // Cancelled right after it was granted
+                this.onFailure();
+            }
+        }
+    }
+
+    private void wakeUp() {
+        lock.lock();
+        try {
+            this.wakeUpScheduled = false;
+        } finally {
+            lock.unlock();
+        }
+        this.grantAsyncWaiters();
+    }
+
+    private void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            this.inFlight--;
+            if (latencyNanos > this.latencyThresholdNanos) {
+                this.window = Math.max(this.minConcurrency, this.window * SLOW_RESPONSE_DECREASE_FACTOR);
+            } else {
+                // Additive increase: roughly +1 per window of fast responses
+                this.window = Math.min(this.maxConcurrency, this.window + 1.0 / this.window);
+            }
+            permitsChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        this.grantAsyncWaiters();
+    }
+
+    private void onThrottled(int retryAfterSeconds) {
+        lock.lock();
+        try {
+            this.inFlight--;
+            this.window = Math.max(this.minConcurrency, this.window * THROTTLED_DECREASE_FACTOR);
+            final long pausedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(1, retryAfterSeconds));
+            if (pausedUntil - this.pausedUntilNanos > 0) {
+                this.pausedUntilNanos = pausedUntil;
+            }
+            permitsChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        this.grantAsyncWaiters();
+    }
+
+    private void onFailure() {
+        lock.lock();
+        try {
+            this.inFlight--;
+            permitsChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        this.grantAsyncWaiters();
+    }
+}
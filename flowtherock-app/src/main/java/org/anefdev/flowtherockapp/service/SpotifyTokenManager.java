@@ -0,0 +1,183 @@
+package org.anefdev.flowtherockapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.anefdev.flowtherockapp.util.ThreadModeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the access tokens of the sessions valid with their refresh tokens.
+ * <br>
+ * Every token is renewed ahead of its expiry, the renewal time is jittered so sessions that logged in together
+ * do not hit the token endpoint together. A request rejected with 401 refreshes the token of its client once.
+ * Concurrent refreshes of the same client share one token request. Renewals stop when the session expired.
+ */
+@Component
+public class SpotifyTokenManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpotifyTokenManager.class);
+
+    // Weak keys compare by identity, the state goes away with the session's client
+    private final Cache<SpotifyApi, TokenState> tokens = Caffeine.newBuilder().weakKeys().build();
+    private final ScheduledExecutorService scheduler;
+    private final SessionStore sessions;
+    private final long leadMs;
+    private final long jitterMs;
+    private final long retryDelayMs;
+
+    public SpotifyTokenManager(SessionStore sessions,
+                               @Value("${spotify-token-refresh-lead-seconds:300}") long leadSeconds,
+                               @Value("${spotify-token-refresh-jitter-seconds:60}") long jitterSeconds,
+                               @Value("${spotify-token-refresh-retry-ms:30000}") long retryDelayMs,
+                               @Value("${spotify-token-refresh-threads:2}") int threads) {
+        this.sessions = sessions;
+        this.leadMs = TimeUnit.SECONDS.toMillis(leadSeconds);
+        this.jitterMs = TimeUnit.SECONDS.toMillis(jitterSeconds);
+        this.retryDelayMs = retryDelayMs;
+        this.scheduler = ThreadModeExecutors.newScheduler("spotify-token-", threads);
+    }
+
+    /**
+     * Starts tracking the tokens of a session that was just authorized and schedules their renewal.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     * @param spotifyApi Spotify client of the session, holding the new tokens
+     * @param expiresInSeconds Lifetime of the access token
+     */
+    public void register(String sessionId, SpotifyApi spotifyApi, int expiresInSeconds) {
+        final TokenState state = new TokenState(sessionId);
+        this.tokens.put(spotifyApi, state);
+        this.scheduleRenewal(state, expiresInSeconds);
+    }
+
+    /**
+     * Refreshes the access token after Spotify rejected it, or waits for the refresh already in flight.
+     * <br>
+     * Sync
+     * @param spotifyApi Spotify client of the rejected request
+     * @param rejectedToken Access token the request was sent with
+     * @return true if the client holds a newer access token, false if it cannot be refreshed
+     */
+    public boolean refreshRejected(SpotifyApi spotifyApi, String rejectedToken) {
+        final TokenState state = this.tokens.getIfPresent(spotifyApi);
+        if (state == null || spotifyApi.getRefreshToken() == null) {
+            return false;
+        }
+        try {
+            this.refresh(spotifyApi, state, rejectedToken).join();
+            return true;
+        } catch (CompletionException | CancellationException e) {
+            LOGGER.warn("refreshRejected [ Token refresh of session " + state.sessionId + " failed: " + e.getMessage() + " ]");
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.scheduler.shutdownNow();
+    }
+
+    private CompletableFuture<Void> refresh(SpotifyApi spotifyApi, TokenState state, String staleToken) {
+        synchronized (state) {
+            if (state.refreshing != null) {
+                return state.refreshing;
+            }
+            if (!Objects.equals(spotifyApi.getAccessToken(), staleToken)) {
+                // Refreshed meanwhile by another request
+                return CompletableFuture.completedFuture(null);
+            }
+            final CompletableFuture<Void> refreshing = new CompletableFuture<>();
+            state.refreshing = refreshing;
+            this.scheduler.execute(() -> {
+                try {
+                    final AuthorizationCodeCredentials credentials = spotifyApi.authorizationCodeRefresh().build().execute();
+                    spotifyApi.setAccessToken(credentials.getAccessToken());
+                    // Spotify only sometimes rotates the refresh token
+                    if (credentials.getRefreshToken() != null) {
+                        spotifyApi.setRefreshToken(credentials.getRefreshToken());
+                    }
+                    this.scheduleRenewal(state, credentials.getExpiresIn());
+                    LOGGER.info("refresh [ Access token of session " + state.sessionId + " refreshed ]");
+                    this.finish(state, refreshing, null);
+                } catch (Exception e) {
+                    this.finish(state, refreshing, e);
+                }
+            });
+            return refreshing;
+        }
+    }
+
+    private void finish(TokenState state, CompletableFuture<Void> refreshing, Exception failure) {
+        synchronized (state) {
+            state.refreshing = null;
+        }
+        if (failure != null) {
+            refreshing.completeExceptionally(failure);
+        } else {
+            refreshing.complete(null);
+        }
+    }
+
+    private void scheduleRenewal(TokenState state, int expiresInSeconds) {
+        final long lifetimeMs = TimeUnit.SECONDS.toMillis(expiresInSeconds);
+        final long jitter = this.jitterMs > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMs) : 0;
+        synchronized (state) {
+            state.expiresAtMillis = System.currentTimeMillis() + lifetimeMs;
+            this.reschedule(state, Math.max(0, lifetimeMs - this.leadMs - jitter));
+        }
+    }
+
+    private void reschedule(TokenState state, long delayMs) {
+        synchronized (state) {
+            if (state.renewal != null) {
+                state.renewal.cancel(false);
+            }
+            state.renewal = this.scheduler.schedule(() -> this.renew(state), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void renew(TokenState state) {
+        final UserSession session = this.sessions.peek(state.sessionId);
+        if (session == null) {
+            LOGGER.info("renew [ Session " + state.sessionId + " expired, renewal stopped ]");
+            return;
+        }
+        final SpotifyApi spotifyApi = session.getSpotifyApi();
+        this.refresh(spotifyApi, state, spotifyApi.getAccessToken()).whenComplete((done, failure) -> {
+            if (failure != null && System.currentTimeMillis() + this.retryDelayMs < state.expiresAtMillis) {
+                LOGGER.warn("renew [ Token renewal of session " + state.sessionId + " failed, retrying: " + failure.getMessage() + " ]");
+                this.reschedule(state, this.retryDelayMs);
+            } else if (failure != null) {
+                LOGGER.warn("renew [ Token renewal of session " + state.sessionId + " failed: " + failure.getMessage() + " ]");
+            }
+        });
+    }
+
+    private static class TokenState {
+
+        private final String sessionId;
+        private volatile long expiresAtMillis;
+        private CompletableFuture<Void> refreshing;
+        private ScheduledFuture<?> renewal;
+
+        TokenState(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+}
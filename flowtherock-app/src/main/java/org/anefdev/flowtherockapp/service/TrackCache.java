@@ -0,0 +1,239 @@
+package org.anefdev.flowtherockapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.TrackCacheStats;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-tier cache of parsed tracks keyed by Spotify track ID.
+ * <br>
+ * The first tier is an in-memory W-TinyLFU cache bounded by entry count, the second tier
+ * is an MVStore file on local disk that survives restarts. Track info and audio features of a track never change,
+ * so entries are never invalidated, only evicted.
+ * The disk tier evicts the tracks that were written or read from disk longest ago first.
+ */
+@Component
+public class TrackCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrackCache.class);
+    // Written first in every entry; entries of another version are misses, so bumping it reloads all tracks
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Cache<String, MusicTrack> memory;
+    private final MVStore store;
+    private final MVMap<String, byte[]> disk;
+    // Eviction order of the disk tier: sequence number -> track ID and back
+    private final MVMap<Long, String> diskOrder;
+    private final MVMap<String, Long> diskSequences;
+    private long nextSequence;
+    private final long diskMaxEntries;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SneakyThrows
+    public TrackCache(@Value("${track-cache-memory-max-entries:50000}") long memoryMaxEntries,
+                      @Value("${track-cache-disk-max-entries:1000000}") long diskMaxEntries,
+                      @Value("${track-cache-disk-path:data/track-cache.mv.db}") String diskPath,
+                      PipelineMetrics metrics) {
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(memoryMaxEntries)
+                .build();
+        final Path path = Path.of(diskPath).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        this.store = new MVStore.Builder()
+                .fileName(path.toString())
+                .compress()
+                .open();
+        this.disk = this.store.openMap("tracks");
+        this.diskOrder = this.store.openMap("order");
+        this.diskSequences = this.store.openMap("sequences");
+        this.nextSequence = this.diskOrder.isEmpty() ? 0 : this.diskOrder.lastKey() + 1;
+        // Files written before the eviction order existed: their tracks are evicted first, in key order
+        if (this.diskSequences.size() < this.disk.size()) {
+            this.disk.keySet().stream()
+                    .filter(trackId -> !this.diskSequences.containsKey(trackId))
+                    .toList()
+                    .forEach(this::touchOnDisk);
+        }
+        this.diskMaxEntries = diskMaxEntries;
+        LOGGER.info("TrackCache [ Disk tier: " + path + " with " + this.disk.size() + " tracks ]");
+
+        // Hit rate per tier: lookups{result="memory-hit"} or lookups{result="disk-hit"} over all lookups
+        final String lookups = "flowtherock.track.cache.lookups";
+        metrics.counter(lookups, "Track cache lookups", this.memoryHits, LongAdder::sum, "result", "memory-hit");
+        metrics.counter(lookups, "Track cache lookups", this.diskHits, LongAdder::sum, "result", "disk-hit");
+        metrics.counter(lookups, "Track cache lookups", this.misses, LongAdder::sum, "result", "miss");
+        metrics.gauge("flowtherock.track.cache.size", "Cached tracks", this.memory, Cache::estimatedSize, "tier", "memory");
+        metrics.gauge("flowtherock.track.cache.size", "Cached tracks", this.disk, MVMap::size, "tier", "disk");
+    }
+
+    /**
+     * Looks up parsed tracks, first in memory and then on disk.
+     * Tracks found on disk are promoted to the memory tier.
+     * <br>
+     * Sync
+     * @param trackIds IDs of the tracks
+     * @return Copies of the cached tracks by track ID, missing IDs are absent
+     */
+    public Map<String, MusicTrack> getAll(Collection<String> trackIds) {
+        final Map<String, MusicTrack> found = new HashMap<>();
+        for (String trackId : trackIds) {
+            if (found.containsKey(trackId)) {
+                continue;
+            }
+            MusicTrack track = this.memory.getIfPresent(trackId);
+            if (track != null) {
+                this.memoryHits.increment();
+            } else {
+                final byte[] encoded = this.disk.get(trackId);
+                track = encoded == null ? null : decode(trackId, encoded);
+                if (track == null) {
+                    this.misses.increment();
+                    continue;
+                }
+                this.diskHits.increment();
+                this.memory.put(trackId, track);
+                this.touchOnDisk(trackId);
+            }
+            found.put(trackId, PlaylistParser.copyTrack(track));
+        }
+        return found;
+    }
+
+    /**
+     * Stores parsed tracks in both tiers.
+     * <br>
+     * Sync
+     * @param tracks Parsed tracks
+     */
+    public void putAll(Collection<MusicTrack> tracks) {
+        for (MusicTrack track : tracks) {
+            final MusicTrack cached = PlaylistParser.copyTrack(track);
+            cached.setMatched(false);
+            this.memory.put(cached.getId(), cached);
+            this.disk.put(cached.getId(), encode(cached));
+            this.touchOnDisk(cached.getId());
+        }
+        this.evictFromDisk();
+    }
+
+    /**
+     * @return Current hit and miss counters of both tiers
+     */
+    public TrackCacheStats getStats() {
+        return new TrackCacheStats(
+                this.memoryHits.sum(),
+                this.diskHits.sum(),
+                this.misses.sum(),
+                this.memory.estimatedSize(),
+                this.disk.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        this.store.close();
+    }
+
+    /**
+     * Moves the track to the end of the disk tier's eviction order.
+     */
+    private synchronized void touchOnDisk(String trackId) {
+        final long sequence = this.nextSequence++;
+        final Long previous = this.diskSequences.put(trackId, sequence);
+        if (previous != null) {
+            this.diskOrder.remove(previous);
+        }
+        this.diskOrder.put(sequence, trackId);
+    }
+
+    private synchronized void evictFromDisk() {
+        while (this.disk.size() > this.diskMaxEntries && !this.diskOrder.isEmpty()) {
+            final Long oldest = this.diskOrder.firstKey();
+            final String trackId = this.diskOrder.remove(oldest);
+            this.diskSequences.remove(trackId);
+            this.disk.remove(trackId);
+        }
+    }
+
+    @SneakyThrows
+    private static byte[] encode(MusicTrack track) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            writeString(out, track.getTitle());
+            writeString(out, track.getArtist());
+            writeString(out, track.getAlbum());
+            out.writeInt(track.getDuration() == null ? -1 : track.getDuration());
+            writeString(out, track.getBpm());
+            writeString(out, track.getKey());
+            writeString(out, track.getMode());
+            writeString(out, track.getCamelot());
+            writeString(out, track.getPreviewUrl());
+            out.writeFloat(track.getEnergy() == null ? Float.NaN : track.getEnergy());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return Decoded track, null if the entry was written with another format version
+     */
+    @SneakyThrows
+    private static MusicTrack decode(String trackId, byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            final byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                return null;
+            }
+            final MusicTrack track = new MusicTrack();
+            track.setId(trackId);
+            track.setTitle(readString(in));
+            track.setArtist(readString(in));
+            track.setAlbum(readString(in));
+            final int duration = in.readInt();
+            track.setDuration(duration < 0 ? null : duration);
+            track.setBpm(readString(in));
+            track.setKey(readString(in));
+            track.setMode(readString(in));
+            track.setCamelot(readString(in));
+            track.setPreviewUrl(readString(in));
+            final float energy = in.readFloat();
+            track.setEnergy(Float.isNaN(energy) ? null : energy);
+            return track;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,74 @@
+package org.anefdev.flowtherockapp.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.anefdev.flowtherockapp.model.LibraryIndex;
+import org.anefdev.flowtherockapp.model.LibraryIndexStatus;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.TrackTable;
+import org.anefdev.flowtherockapp.model.SpotifyUser;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of one logged-in user: Spotify client with the user's tokens, profile, loaded playlists and library index.
+ * <br>
+ * A session is shared by all concurrent requests of the same user, so every field is volatile
+ * and replaced as a whole instead of being mutated.
+ */
+@Getter
+@Setter
+public class UserSession {
+
+    // Tables kept for switching back to a playlist loaded before
+    private static final int LOADED_PLAYLIST_TABLES = 4;
+
+    private final String id;
+    private final SpotifyApi spotifyApi;
+    private volatile SpotifyUser currentUser;
+    private volatile List<MusicPlaylist> allPlaylists = List.of();
+    private volatile TrackTable playlistTable = TrackTable.empty();
+    // Tables of the last loaded playlists by playlist ID, least recently current first
+    @Setter(AccessLevel.NONE)
+    private volatile Map<String, TrackTable> playlistTables = Map.of();
+    private volatile LibraryIndex libraryIndex = LibraryIndex.empty();
+    private volatile LibraryIndexStatus libraryIndexStatus = new LibraryIndexStatus("IDLE", 0, 0, 0);
+
+    public UserSession(String id, SpotifyApi spotifyApi) {
+        this.id = id;
+        this.spotifyApi = spotifyApi;
+    }
+
+    /**
+     * Makes the table the current playlist and keeps it as the table of the playlist,
+     * the table of the least recently current playlist is dropped beyond the limit.
+     * @param playlistId ID of the playlist the table was built from
+     * @param table Table of the playlist
+     */
+    public synchronized void setPlaylistTable(String playlistId, TrackTable table) {
+        final LinkedHashMap<String, TrackTable> tables = new LinkedHashMap<>(this.playlistTables);
+        tables.remove(playlistId);
+        tables.put(playlistId, table);
+        if (tables.size() > LOADED_PLAYLIST_TABLES) {
+            tables.remove(tables.keySet().iterator().next());
+        }
+        this.playlistTables = Collections.unmodifiableMap(tables);
+        this.playlistTable = table;
+    }
+
+    /**
+     * @return Approximate size of the session, counted in stored tracks and playlists
+     */
+    public int getWeight() {
+        int tables = this.playlistTable.size();
+        for (TrackTable table : this.playlistTables.values()) {
+            tables += table == this.playlistTable ? 0 : table.size();
+        }
+        return 1 + this.allPlaylists.size() + tables + this.libraryIndex.size();
+    }
+}
@@ -0,0 +1,162 @@
+package org.anefdev.flowtherockapp.service;
+
+import jakarta.annotation.PreDestroy;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.util.PlaylistParser;
+import org.anefdev.flowtherockapp.util.ThreadModeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Warms up a user's data in the background right after authorization.
+ * <br>
+ * Loads the profile and the playlist summaries, then prefetches tracks of the user's first playlists
+ * into the track cache, so the first playlist load is served from the cache. Warm-ups run on a small pool
+ * shared by all users, prefetch one batch at a time and back off while the Spotify concurrency window
+ * is busy with user requests. Each warm-up is bounded by a track budget and can be cancelled.
+ */
+@Service
+public class WarmUpService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmUpService.class);
+    private static final int PREFETCH_BATCH_SIZE = 100;
+    private static final long BACK_OFF_MS = 100;
+
+    @Autowired
+    private FlowTheRockService service;
+    @Autowired
+    private SessionStore sessions;
+    @Autowired
+    private TrackCache trackCache;
+    @Autowired
+    private SpotifyRequestExecutor executor;
+
+    private final ExecutorService workers;
+    private final boolean enabled;
+    private final int maxPlaylists;
+    private final int maxTracks;
+    private final Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+
+    public WarmUpService(@Value("${warm-up-enabled:true}") boolean enabled,
+                         @Value("${warm-up-threads:2}") int threads,
+                         @Value("${warm-up-max-playlists:3}") int maxPlaylists,
+                         @Value("${warm-up-max-tracks:2000}") int maxTracks,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.workers = ThreadModeExecutors.newExecutor(virtualThreads, "warm-up-", threads);
+        this.enabled = enabled;
+        this.maxPlaylists = maxPlaylists;
+        this.maxTracks = maxTracks;
+    }
+
+    /**
+     * Starts the warm-up of the session in the background, unless one is already running.
+     * <br>
+     * Async
+     * @param sessionId ID of the user's session
+     */
+    public void start(String sessionId) {
+        if (!enabled) {
+            return;
+        }
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        if (running.putIfAbsent(sessionId, cancelled) != null) {
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                this.warmUp(sessionId, cancelled);
+            } catch (Exception e) {
+                LOGGER.warn("warmUp [ Warm-up of session " + sessionId + " failed: " + e.getMessage() + " ]");
+            } finally {
+                running.remove(sessionId, cancelled);
+            }
+        });
+    }
+
+    /**
+     * Cancels the running warm-up of the session. The batch in flight is completed, no further batch is started.
+     * <br>
+     * Sync
+     * @param sessionId ID of the user's session
+     * @return true if a warm-up was running
+     */
+    public boolean cancel(String sessionId) {
+        final AtomicBoolean cancelled = running.get(sessionId);
+        if (cancelled == null) {
+            return false;
+        }
+        cancelled.set(true);
+        LOGGER.info("cancel [ Warm-up of session " + sessionId + " cancelled ]");
+        return true;
+    }
+
+    private void warmUp(String sessionId, AtomicBoolean cancelled) {
+        LOGGER.info("warmUp [ Warming up session " + sessionId + " ... ]");
+        final long started = System.currentTimeMillis();
+        service.loadUserData(sessionId);
+        if (cancelled.get()) {
+            return;
+        }
+        final List<MusicPlaylist> playlists = service.loadAllUsersPlaylists(sessionId);
+        final SpotifyApi spotifyApi = sessions.get(sessionId).getSpotifyApi();
+
+        // Spotify lists the playlists the user created or followed most recently first
+        int budget = maxTracks;
+        int prefetched = 0;
+        for (MusicPlaylist playlist : playlists.subList(0, Math.min(maxPlaylists, playlists.size()))) {
+            if (budget <= 0 || cancelled.get()) {
+                break;
+            }
+            final List<String> trackIds = service.loadPlaylistTrackIds(spotifyApi, playlist.getId());
+            for (List<String> batch : PlaylistParser.partition(trackIds.stream().distinct().toList(), PREFETCH_BATCH_SIZE)) {
+                if (budget <= 0 || !this.awaitIdleCapacity(cancelled)) {
+                    break;
+                }
+                final Map<String, ?> cached = trackCache.getAll(batch);
+                final List<String> missingIds = batch.stream()
+                        .filter(trackId -> !cached.containsKey(trackId))
+                        .limit(budget)
+                        .toList();
+                if (!missingIds.isEmpty()) {
+                    service.resolveTracks(spotifyApi, missingIds);
+                    budget -= missingIds.size();
+                    prefetched += missingIds.size();
+                }
+            }
+        }
+        LOGGER.info("warmUp [ OK: " + prefetched + " tracks prefetched in " + (System.currentTimeMillis() - started) + " ms"
+                + (cancelled.get() ? ", cancelled" : "") + " ]");
+    }
+
+    /**
+     * Waits while user requests occupy at least half of the Spotify concurrency window.
+     * @return false if the warm-up was cancelled meanwhile
+     */
+    private boolean awaitIdleCapacity(AtomicBoolean cancelled) {
+        while (!cancelled.get() && executor.getInFlight() >= Math.max(1, executor.getLimit() / 2)) {
+            try {
+                Thread.sleep(BACK_OFF_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !cancelled.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.running.values().forEach(cancelled -> cancelled.set(true));
+        this.workers.shutdownNow();
+    }
+}
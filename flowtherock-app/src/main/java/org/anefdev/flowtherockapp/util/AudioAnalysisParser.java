@@ -0,0 +1,73 @@
+package org.anefdev.flowtherockapp.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import se.michaelthelin.spotify.enums.Modality;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for the track section of a Spotify audio analysis.
+ * <br>
+ * An audio analysis holds megabytes of bars, beats, sections, segments and tatums, but only tempo, key and mode
+ * of its track section are used. The JSON is read token by token and reading stops right after the track section,
+ * so the timing arrays that follow it are never parsed or allocated.
+ */
+public class AudioAnalysisParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Reads tempo, key and mode of the track section, the rest of the stream is left unread.
+     * @param json Audio analysis JSON
+     * @return Track with bpm, key and mode (MAJOR or MINOR) set, like PlaylistParser.convertTrackAnalysisToTrack
+     * @throws IOException if the JSON is malformed or has no complete track section
+     */
+    public static MusicTrack parseTrackSection(InputStream json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Audio analysis is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String section = parser.currentName();
+                parser.nextToken();
+                if (!"track".equals(section)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                return readTrack(parser);
+            }
+            throw new IOException("Audio analysis has no track section");
+        }
+    }
+
+    private static MusicTrack readTrack(JsonParser parser) throws IOException {
+        Float tempo = null;
+        Integer key = null;
+        Integer mode = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "tempo" -> tempo = value.isNumeric() ? parser.getFloatValue() : null;
+                case "key" -> key = value.isNumeric() ? parser.getIntValue() : null;
+                case "mode" -> mode = value.isNumeric() ? parser.getIntValue() : null;
+                default -> parser.skipChildren();
+            }
+        }
+        // The analysis has the mode as 1 or 0, the model objects and parseTrackAnalysisKey use the Modality name
+        final Modality modality = mode == null ? null : Modality.keyOf(mode);
+        if (tempo == null || key == null || modality == null) {
+            throw new IOException("Audio analysis track section has no tempo, key or mode");
+        }
+
+        MusicTrack track = new MusicTrack();
+        track.setBpm(String.valueOf(tempo));
+        track.setKey(String.valueOf(key));
+        track.setMode(modality.name());
+        return track;
+    }
+}
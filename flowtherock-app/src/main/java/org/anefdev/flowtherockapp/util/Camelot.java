@@ -0,0 +1,39 @@
+package org.anefdev.flowtherockapp.util;
+
+/**
+ * Compact byte codes for Camelot wheel positions.
+ * <br>
+ * Minor keys a1..a12 are coded 0..11, major keys b1..b12 are coded 12..23, tracks without key are NONE.
+ */
+public class Camelot {
+
+    public static final byte NONE = -1;
+    public static final int POSITIONS = 24;
+
+    public static byte encode(String camelot) {
+        if (camelot == null || camelot.length() < 2) {
+            return NONE;
+        }
+        final int number;
+        try {
+            number = Integer.parseInt(camelot.substring(1));
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+        if (number < 1 || number > 12) {
+            return NONE;
+        }
+        return switch (camelot.charAt(0)) {
+            case 'a' -> (byte) (number - 1);
+            case 'b' -> (byte) (number + 11);
+            default -> NONE;
+        };
+    }
+
+    public static String decode(byte code) {
+        if (code < 0 || code >= POSITIONS) {
+            return null;
+        }
+        return code < 12 ? "a" + (code + 1) : "b" + (code - 11);
+    }
+}
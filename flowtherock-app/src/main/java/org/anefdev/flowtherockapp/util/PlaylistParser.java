@@ -1,11 +1,17 @@
 package org.anefdev.flowtherockapp.util;
 
+import org.anefdev.flowtherockapp.model.CamelotIndex;
 import org.anefdev.flowtherockapp.model.MusicPlaylist;
 import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.anefdev.flowtherockapp.model.TrackTable;
 import se.michaelthelin.spotify.model_objects.miscellaneous.AudioAnalysis;
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+import se.michaelthelin.spotify.model_objects.specification.Image;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistSimplified;
 import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
 import se.michaelthelin.spotify.model_objects.specification.Track;
+import se.michaelthelin.spotify.model_objects.specification.User;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -14,6 +20,44 @@ import java.util.Map;
 
 public class PlaylistParser {
 
+    private static final Map<String, List<String>> HARMONIES = new HashMap<>();
+    private static final byte[][] HARMONY_CODES = new byte[Camelot.POSITIONS][];
+
+    static {
+        HARMONIES.put("a1", List.of("a12", "a2", "b1"));
+        HARMONIES.put("a2", List.of("a1", "a3", "b2"));
+        HARMONIES.put("a3", List.of("a2", "a4", "b3"));
+        HARMONIES.put("a4", List.of("a3", "a5", "b4"));
+        HARMONIES.put("a5", List.of("a4", "a6", "b5"));
+        HARMONIES.put("a6", List.of("a5", "a7", "b6"));
+        HARMONIES.put("a7", List.of("a6", "a8", "b7"));
+        HARMONIES.put("a8", List.of("a7", "a9", "b8"));
+        HARMONIES.put("a9", List.of("a8", "a10", "b9"));
+        HARMONIES.put("a10", List.of("a9", "a11", "b10"));
+        HARMONIES.put("a11", List.of("a10", "a12", "b11"));
+        HARMONIES.put("a12", List.of("a11", "a1", "b12"));
+        HARMONIES.put("b1", List.of("b12", "b2", "a1"));
+        HARMONIES.put("b2", List.of("b1", "b3", "a2"));
+        HARMONIES.put("b3", List.of("b2", "b4", "a3"));
+        HARMONIES.put("b4", List.of("b3", "b5", "a4"));
+        HARMONIES.put("b5", List.of("b4", "b6", "a5"));
+        HARMONIES.put("b6", List.of("b5", "b7", "a6"));
+        HARMONIES.put("b7", List.of("b6", "b8", "a7"));
+        HARMONIES.put("b8", List.of("b7", "b9", "a8"));
+        HARMONIES.put("b9", List.of("b8", "b10", "a9"));
+        HARMONIES.put("b10", List.of("b9", "b11", "a10"));
+        HARMONIES.put("b11", List.of("b10", "b12", "a11"));
+        HARMONIES.put("b12", List.of("b11", "b1", "a12"));
+
+        HARMONIES.forEach((camelot, harmonies) -> {
+            final byte[] codes = new byte[harmonies.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = Camelot.encode(harmonies.get(i));
+            }
+            HARMONY_CODES[Camelot.encode(camelot)] = codes;
+        });
+    }
+
 
     public static List<MusicTrack> getTrackListNoMetaData(List<PlaylistTrack> playlist) {
         return playlist.stream().map(
@@ -32,6 +76,7 @@ public class PlaylistParser {
                     var musicPlaylist = new MusicPlaylist();
                     musicPlaylist.setId(playlist.getId());
                     musicPlaylist.setTitle(playlist.getName());
+                    musicPlaylist.setSnapshotId(playlist.getSnapshotId());
                     musicPlaylist.setCount(playlist.getTracks().getTotal());
                     musicPlaylist.setImageUrl(playlist.getImages()[0].getUrl());
                     return musicPlaylist;
@@ -39,6 +84,31 @@ public class PlaylistParser {
         ).toList();
     }
 
+    /**
+     * @return User's data, without image if the user has no profile picture
+     */
+    public static SpotifyUser getUser(User user) {
+        final Image[] images = user.getImages();
+        return new SpotifyUser(
+                user.getId(),
+                user.getEmail(),
+                user.getDisplayName(),
+                images == null || images.length == 0 ? null : images[0].getUrl(),
+                user.getUri());
+    }
+
+    /**
+     * Builds the version of the user's playlist list from the IDs and snapshot IDs in list order.
+     * A playlist gets a new snapshot ID whenever its items or details change.
+     * @param playlists Playlists of the user
+     * @return Version of the playlist list
+     */
+    public static String getPlaylistsVersion(List<MusicPlaylist> playlists) {
+        final StringBuilder version = new StringBuilder("playlists");
+        playlists.forEach(playlist -> version.append('|').append(playlist.getId()).append(':').append(playlist.getSnapshotId()));
+        return version.toString();
+    }
+
     public static MusicTrack convertTrackAnalysisToTrack(AudioAnalysis analysis) {
 
         MusicTrack track = new MusicTrack();
@@ -50,6 +120,41 @@ public class PlaylistParser {
         return track;
     }
 
+    public static MusicTrack convertAudioFeaturesToTrack(AudioFeatures features) {
+
+        MusicTrack track = new MusicTrack();
+        track.setBpm(String.valueOf(features.getTempo()));
+        track.setKey(String.valueOf(features.getKey()));
+        track.setMode(String.valueOf(features.getMode()));
+        track.setEnergy(features.getEnergy());
+
+        return track;
+    }
+
+    public static MusicTrack copyTrack(MusicTrack track) {
+        return new MusicTrack(
+                track.getId(),
+                track.getTitle(),
+                track.getArtist(),
+                track.getAlbum(),
+                track.getDuration(),
+                track.getBpm(),
+                track.getKey(),
+                track.getMode(),
+                track.getCamelot(),
+                track.isMatched(),
+                track.getPreviewUrl(),
+                track.getEnergy());
+    }
+
+    public static <T> List<List<T>> partition(List<T> items, int batchSize) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += batchSize) {
+            batches.add(items.subList(from, Math.min(from + batchSize, items.size())));
+        }
+        return batches;
+    }
+
     public static MusicTrack parseTrackAnalysisKey(MusicTrack track) {
 
         final Map<Integer, String> keys = new HashMap<>();
@@ -111,72 +216,125 @@ public class PlaylistParser {
     }
 
     public static List<MusicTrack> sortPlaylist(List<MusicTrack> playlist, String trackId) {
+        return sortPlaylist(TrackTable.of(playlist), trackId);
+    }
 
-        Map<String, List<String>> harmonies = new HashMap<>();
-        harmonies.put("a1", List.of("a12", "a2", "b1"));
-        harmonies.put("a2", List.of("a1", "a3", "b2"));
-        harmonies.put("a3", List.of("a2", "a4", "b3"));
-        harmonies.put("a4", List.of("a3", "a5", "b4"));
-        harmonies.put("a5", List.of("a4", "a6", "b5"));
-        harmonies.put("a6", List.of("a5", "a7", "b6"));
-        harmonies.put("a7", List.of("a6", "a8", "b7"));
-        harmonies.put("a8", List.of("a7", "a9", "b8"));
-        harmonies.put("a9", List.of("a8", "a10", "b9"));
-        harmonies.put("a10", List.of("a9", "a11", "b10"));
-        harmonies.put("a11", List.of("a10", "a12", "b11"));
-        harmonies.put("a12", List.of("a11", "a1", "b12"));
-        harmonies.put("b1", List.of("b12", "b2", "a1"));
-        harmonies.put("b2", List.of("b1", "b2", "a2"));
-        harmonies.put("b3", List.of("b2", "b4", "a3"));
-        harmonies.put("b4", List.of("b3", "b5", "a4"));
-        harmonies.put("b5", List.of("b4", "b6", "a5"));
-        harmonies.put("b6", List.of("b5", "b7", "a6"));
-        harmonies.put("b7", List.of("b6", "b8", "a7"));
-        harmonies.put("b8", List.of("b7", "b9", "a8"));
-        harmonies.put("b9", List.of("b8", "b10", "a9"));
-        harmonies.put("b10", List.of("b9", "b11", "a10"));
-        harmonies.put("b11", List.of("b10", "b12", "a11"));
-        harmonies.put("b12", List.of("b11", "b1", "a12"));
-
-        MusicTrack trackFind = null;
-        for (MusicTrack track : playlist) {
-            if (track.getId().equals(trackId)) {
-                trackFind = track;
+    /**
+     * Sorts the playlist via Camelot wheel by passed seed track.
+     * Tracks in the seed's key or a harmonic key come first, ordered by tempo distance to the seed
+     * (the seed itself first, ties in playlist order), followed by all other tracks in playlist order.
+     * Matched tracks are merged from at most 4 buckets of the playlist's Camelot index, walking each bucket
+     * outwards from the seed tempo, so no per-request sort is needed. The table itself is never modified.
+     * @param playlist Loaded playlist
+     * @param trackId ID of the seed track
+     * @return Sorted playlist with matched tags set
+     */
+    public static List<MusicTrack> sortPlaylist(TrackTable playlist, String trackId) {
+
+        final int seed = playlist.rowOf(trackId);
+        if (seed < 0) {
+            throw new IllegalArgumentException("Track " + trackId + " is not in the playlist");
+        }
+        final byte seedCamelot = playlist.camelot(seed);
+        final float seedBpm = playlist.bpm(seed);
+
+        // The seed always leads, even when other tracks share its tempo
+        final List<MusicTrack> playlistFinal = new ArrayList<>(playlist.size());
+        playlistFinal.add(playlist.toTrack(seed, true));
+        if (seedCamelot != Camelot.NONE) {
+            if (Float.isNaN(seedBpm)) {
+                // Every tempo distance is unknown, so all matched tracks tie and keep playlist order
+                for (int row = 0; row < playlist.size(); row++) {
+                    if (row != seed && isHarmonic(seedCamelot, playlist.camelot(row))) {
+                        playlistFinal.add(playlist.toTrack(row, true));
+                    }
+                }
+            } else {
+                mergeMatched(playlist, seed, seedCamelot, seedBpm, playlistFinal);
             }
         }
-        assert trackFind != null;
-        List<String> currentHarmonies = harmonies.get(trackFind.getCamelot());
-        List<MusicTrack> matchedTracks = new ArrayList<>();
-
-        for (MusicTrack track : playlist) {
-            if (currentHarmonies.contains(track.getCamelot()) || trackFind.getCamelot().equals(track.getCamelot())) {
-                track.setMatched(true);
-                matchedTracks.add(track);
+        for (int row = 0; row < playlist.size(); row++) {
+            if (row != seed && !isHarmonic(seedCamelot, playlist.camelot(row))) {
+                playlistFinal.add(playlist.toTrack(row, false));
             }
         }
 
-        matchedTracks.sort((t1, t2) -> {
+        return playlistFinal;
 
-            var diff = Math.abs(Float.parseFloat(t1.getBpm()) - Float.parseFloat(t2.getBpm()));
+    }
 
-            if (diff > 0) {
-                return 1;
-            } else if (diff < 0) {
-                return -1;
-            }
-            return 0;
-        });
+    /**
+     * @return Absolute tempo difference, tracks without tempo are farthest
+     */
+    public static float tempoDistance(float bpm1, float bpm2) {
+        final float distance = Math.abs(bpm1 - bpm2);
+        return Float.isNaN(distance) ? Float.MAX_VALUE : distance;
+    }
+
+    /**
+     * @return true if both Camelot codes are known and the keys are equal or neighbours in the harmonies table
+     */
+    public static boolean isHarmonic(byte camelot1, byte camelot2) {
+        if (camelot1 == Camelot.NONE || camelot2 == Camelot.NONE) {
+            return false;
+        }
+        return camelot1 == camelot2 || contains(HARMONY_CODES[camelot1], camelot2);
+    }
 
-        List<MusicTrack> playlistFinal = new ArrayList<>(matchedTracks);
+    /**
+     * Merges the seed's bucket and its harmonic buckets by tempo distance to the seed, ties in row order.
+     * Every bucket contributes three runs, each already ordered by distance and row: tracks at or above
+     * the seed tempo, tracks below it and tracks without tempo, which are farthest.
+     */
+    private static void mergeMatched(TrackTable playlist, int seed, byte seedCamelot, float seedBpm,
+                                     List<MusicTrack> playlistFinal) {
+        final CamelotIndex index = playlist.camelotIndex();
+        final byte[] harmonies = HARMONY_CODES[seedCamelot];
+        final int[][] runs = new int[3 * (harmonies.length + 1)][];
+        final int[] positions = new int[runs.length];
+        for (int bucket = 0; bucket <= harmonies.length; bucket++) {
+            final byte camelot = bucket == 0 ? seedCamelot : harmonies[bucket - 1];
+            final int below = index.countBelow(camelot, seedBpm);
+            runs[3 * bucket] = index.ascending(camelot);
+            positions[3 * bucket] = below;
+            runs[3 * bucket + 1] = index.descending(camelot);
+            positions[3 * bucket + 1] = runs[3 * bucket + 1].length - below;
+            runs[3 * bucket + 2] = index.unknownBpm(camelot);
+        }
 
-        for (MusicTrack track: playlist) {
-            if (!playlistFinal.contains(track) && !trackFind.getId().equals(track.getId())) {
-                playlistFinal.add(track);
+        while (true) {
+            int bestRun = -1;
+            int bestRow = 0;
+            float bestDistance = 0;
+            for (int run = 0; run < runs.length; run++) {
+                if (positions[run] >= runs[run].length) {
+                    continue;
+                }
+                final int row = runs[run][positions[run]];
+                final float distance = tempoDistance(seedBpm, playlist.bpm(row));
+                if (bestRun < 0 || distance < bestDistance || (distance == bestDistance && row < bestRow)) {
+                    bestRun = run;
+                    bestRow = row;
+                    bestDistance = distance;
+                }
+            }
+            if (bestRun < 0) {
+                return;
+            }
+            positions[bestRun]++;
+            if (bestRow != seed) {
+                playlistFinal.add(playlist.toTrack(bestRow, true));
             }
         }
+    }
 
-        return playlistFinal;
-
+    private static boolean contains(byte[] codes, byte code) {
+        for (byte c : codes) {
+            if (c == code) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
@@ -0,0 +1,503 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.anefdev.flowtherockapp.model.CamelotIndex;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.TrackTable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Orders a whole playlist as a DJ set starting at a seed track.
+ * <br>
+ * Every transition costs a weighted sum of the Camelot wheel distance, the BPM jump and optionally the energy jump.
+ * The path is built greedily by nearest neighbour and then improved by 2-opt and Or-opt moves until no move
+ * helps or the time budget is spent. Improvement rounds split the path into chunks that are optimized in parallel
+ * on the fork/join pool. The first and last position of a chunk stay fixed, so chunks never touch the same edges.
+ * Chunk borders and sizes change from round to round, so every edge is eventually inside some chunk.
+ */
+public class SetSequencer {
+
+    // Cost of a transition to or from a track without key, a bit more than two steps on the wheel
+    private static final float UNKNOWN_KEY_DISTANCE = 2.5f;
+    // BPM jump assumed for tracks without tempo
+    private static final float UNKNOWN_BPM_JUMP = 30f;
+    // Smallest chunk worth a fork/join task
+    private static final int MIN_CHUNK_SIZE = 64;
+    // Longest segment moved by Or-opt
+    private static final int MAX_SEGMENT_LENGTH = 3;
+    // Rounds per cycle of chunk sizes, the last round of a cycle covers the whole path
+    private static final int ROUNDS_PER_CYCLE = 4;
+    // Greedy search buckets: tracks without key, then one per Camelot code
+    private static final int BUCKETS = Camelot.POSITIONS + 1;
+    private static final int NO_KEY_BUCKET = 0;
+
+    private static final float[] KEY_DISTANCES = new float[(Camelot.POSITIONS + 1) * (Camelot.POSITIONS + 1)];
+    // Buckets by wheel distance from each key, first index for tracks without key
+    private static final int[][] BUCKET_ORDER = new int[Camelot.POSITIONS + 1][];
+
+    static {
+        for (int from = Camelot.NONE; from < Camelot.POSITIONS; from++) {
+            for (int to = Camelot.NONE; to < Camelot.POSITIONS; to++) {
+                KEY_DISTANCES[keyIndex((byte) from, (byte) to)] = keyDistance((byte) from, (byte) to);
+            }
+        }
+        for (int from = Camelot.NONE; from < Camelot.POSITIONS; from++) {
+            final byte camelot = (byte) from;
+            BUCKET_ORDER[from + 1] = IntStream.range(0, BUCKETS)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(bucket -> KEY_DISTANCES[keyIndex(camelot, (byte) (bucket - 1))]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+
+    private final TrackTable playlist;
+    private final float keyWeight;
+    private final float bpmWeight;
+    private final float energyWeight;
+    private final long deadlineNanos;
+    private final int[] path;
+
+    SetSequencer(TrackTable playlist, float keyWeight, float bpmWeight, float energyWeight, long timeBudgetMs) {
+        this.playlist = playlist;
+        this.keyWeight = keyWeight;
+        this.bpmWeight = bpmWeight;
+        this.energyWeight = energyWeight;
+        this.deadlineNanos = System.nanoTime() + timeBudgetMs * 1_000_000L;
+        this.path = new int[playlist.size()];
+    }
+
+    /**
+     * Orders all tracks of the playlist into a set starting at the passed track.
+     * <br>
+     * Sync
+     * @param playlist Loaded playlist
+     * @param trackId ID of the first track of the set
+     * @param keyWeight Cost of one step on the Camelot wheel, not negative
+     * @param bpmWeight Cost of one BPM of tempo jump, not negative
+     * @param energyWeight Cost of an energy jump from 0 to 1, 0 ignores energy
+     * @param timeBudgetMs Time allowed for the improvement rounds
+     * @return Tracks in set order, a track is matched if the transition into it is harmonic
+     */
+    public static List<MusicTrack> sequencePlaylist(TrackTable playlist, String trackId,
+                                                    float keyWeight, float bpmWeight, float energyWeight,
+                                                    long timeBudgetMs) {
+
+        final int seed = playlist.rowOf(trackId);
+        if (seed < 0) {
+            throw new IllegalArgumentException("Track " + trackId + " is not in the playlist");
+        }
+        final SetSequencer sequencer = new SetSequencer(playlist, keyWeight, bpmWeight, energyWeight, timeBudgetMs);
+        sequencer.buildGreedyPath(seed);
+        sequencer.improve();
+
+        final List<MusicTrack> playlistFinal = new ArrayList<>(playlist.size());
+        for (int position = 0; position < sequencer.path.length; position++) {
+            final int row = sequencer.path[position];
+            final boolean matched = position == 0
+                    || PlaylistParser.isHarmonic(playlist.camelot(sequencer.path[position - 1]), playlist.camelot(row));
+            playlistFinal.add(playlist.toTrack(row, matched));
+        }
+        return playlistFinal;
+    }
+
+    /**
+     * @return Cost of playing the track of row {@code to} right after the track of row {@code from}
+     */
+    float cost(int from, int to) {
+        float cost = this.keyWeight * KEY_DISTANCES[keyIndex(this.playlist.camelot(from), this.playlist.camelot(to))];
+        final float bpmFrom = this.playlist.bpm(from);
+        final float bpmTo = this.playlist.bpm(to);
+        cost += this.bpmWeight * (Float.isNaN(bpmFrom) || Float.isNaN(bpmTo) ? UNKNOWN_BPM_JUMP : Math.abs(bpmFrom - bpmTo));
+        if (this.energyWeight > 0) {
+            final float energyJump = Math.abs(this.playlist.energy(from) - this.playlist.energy(to));
+            if (!Float.isNaN(energyJump)) {
+                cost += this.energyWeight * energyJump;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Starts at the seed and always continues with the cheapest track not played yet.
+     * <br>
+     * Candidates are searched by Camelot bucket in order of wheel distance, and within a bucket outwards from the
+     * current tempo, until the key and tempo cost alone reach the cheapest transition found. The buckets come from
+     * the playlist's Camelot index, tracks without key form one more bucket. Played tracks are skipped by links to
+     * the next track still to play in both directions, so every step only looks at the neighbourhood of the best one.
+     */
+    void buildGreedyPath(int seed) {
+        final int size = this.path.length;
+        final CamelotIndex index = this.playlist.camelotIndex();
+
+        // All buckets in one array, every bucket holds its rows ascending by BPM followed by its rows without tempo
+        final int[] rows = new int[size];
+        final float[] bpms = new float[size];
+        final int[] bucketStart = new int[BUCKETS + 1];
+        final int[] bucketUnknownBpm = new int[BUCKETS];
+        final int[] position = new int[size];
+        int end = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bucketStart[bucket] = end;
+            final int[] ascending;
+            final int[] unknownBpm;
+            if (bucket == NO_KEY_BUCKET) {
+                ascending = this.rowsWithoutKey(true);
+                unknownBpm = this.rowsWithoutKey(false);
+            } else {
+                ascending = index.ascending((byte) (bucket - 1));
+                unknownBpm = index.unknownBpm((byte) (bucket - 1));
+            }
+            for (int row : ascending) {
+                bpms[end] = this.playlist.bpm(row);
+                rows[end++] = row;
+            }
+            bucketUnknownBpm[bucket] = end;
+            for (int row : unknownBpm) {
+                bpms[end] = Float.NaN;
+                rows[end++] = row;
+            }
+        }
+        bucketStart[BUCKETS] = end;
+        for (int i = 0; i < size; i++) {
+            position[rows[i]] = i;
+        }
+
+        // next[i] and previous[i + 1] lead to the nearest position still to play after and before i,
+        // size and 0 are sentinels that are never played
+        final int[] next = new int[size + 1];
+        final int[] previous = new int[size + 1];
+        for (int i = 0; i <= size; i++) {
+            next[i] = i;
+            previous[i] = i;
+        }
+
+        int current = seed;
+        this.path[0] = seed;
+        next[position[seed]] = position[seed] + 1;
+        previous[position[seed] + 1] = position[seed];
+        for (int step = 1; step < size; step++) {
+            final byte camelot = this.playlist.camelot(current);
+            final float bpm = this.playlist.bpm(current);
+            int best = -1;
+            float bestCost = Float.MAX_VALUE;
+            for (int bucket : BUCKET_ORDER[camelot + 1]) {
+                final float keyCost = this.keyWeight * KEY_DISTANCES[keyIndex(camelot, (byte) (bucket - 1))];
+                if (keyCost >= bestCost) {
+                    // Buckets come by wheel distance, no later one can be cheaper
+                    break;
+                }
+                final int start = bucketStart[bucket];
+                final int unknownBpm = bucketUnknownBpm[bucket];
+                if (Float.isNaN(bpm)) {
+                    // Every candidate costs the same tempo jump
+                    final float bound = keyCost + this.bpmWeight * UNKNOWN_BPM_JUMP;
+                    for (int i = find(next, start); i < bucketStart[bucket + 1] && bound < bestCost; i = find(next, i + 1)) {
+                        final float cost = this.cost(current, rows[i]);
+                        if (cost < bestCost) {
+                            bestCost = cost;
+                            best = rows[i];
+                        }
+                    }
+                    continue;
+                }
+                final int middle = lowerBound(bpms, start, unknownBpm, bpm);
+                for (int i = find(next, middle); i < unknownBpm; i = find(next, i + 1)) {
+                    if (keyCost + this.bpmWeight * (bpms[i] - bpm) >= bestCost) {
+                        break;
+                    }
+                    final float cost = this.cost(current, rows[i]);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = rows[i];
+                    }
+                }
+                for (int i = find(previous, middle) - 1; i >= start; i = find(previous, i) - 1) {
+                    if (keyCost + this.bpmWeight * (bpm - bpms[i]) >= bestCost) {
+                        break;
+                    }
+                    final float cost = this.cost(current, rows[i]);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = rows[i];
+                    }
+                }
+                final float bound = keyCost + this.bpmWeight * UNKNOWN_BPM_JUMP;
+                for (int i = find(next, unknownBpm); i < bucketStart[bucket + 1] && bound < bestCost; i = find(next, i + 1)) {
+                    final float cost = this.cost(current, rows[i]);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = rows[i];
+                    }
+                }
+            }
+            this.path[step] = best;
+            next[position[best]] = position[best] + 1;
+            previous[position[best] + 1] = position[best];
+            current = best;
+        }
+    }
+
+    /**
+     * @return Rows without key, with tempo ascending by BPM or without tempo in row order
+     */
+    private int[] rowsWithoutKey(boolean withBpm) {
+        return IntStream.range(0, this.playlist.size())
+                .filter(row -> this.playlist.camelot(row) == Camelot.NONE && Float.isNaN(this.playlist.bpm(row)) != withBpm)
+                .boxed()
+                .sorted(Comparator.comparingDouble(this.playlist::bpm))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * @return The position itself if it is still to play, otherwise the one its links lead to; shortens the links
+     */
+    private static int find(int[] links, int position) {
+        int root = position;
+        while (links[root] != root) {
+            root = links[root];
+        }
+        while (links[position] != root) {
+            final int link = links[position];
+            links[position] = root;
+            position = link;
+        }
+        return root;
+    }
+
+    /**
+     * @return First position in from..to with a tempo not below the passed one, to if there is none
+     */
+    private static int lowerBound(float[] bpms, int from, int to, float bpm) {
+        while (from < to) {
+            final int middle = (from + to) >>> 1;
+            if (bpms[middle] < bpm) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    int[] path() {
+        return this.path;
+    }
+
+    /**
+     * Runs improvement rounds until a whole cycle of chunk layouts brings no improvement or the budget is spent.
+     */
+    private void improve() {
+        final int size = this.path.length;
+        if (size < 3) {
+            return;
+        }
+        final int parallelism = ForkJoinPool.commonPool().getParallelism();
+        final int baseChunkSize = Math.max(MIN_CHUNK_SIZE, (size + parallelism - 1) / parallelism);
+
+        boolean improvedInCycle = false;
+        for (int round = 0; System.nanoTime() < this.deadlineNanos; round++) {
+            final int step = round % ROUNDS_PER_CYCLE;
+            // Chunk sizes double within a cycle, borders shift by half a chunk on odd rounds
+            final int chunkSize = step == ROUNDS_PER_CYCLE - 1 ? size : Math.min(size, baseChunkSize << (step / 2));
+            final int offset = step % 2 == 1 ? chunkSize / 2 : 0;
+
+            final List<int[]> chunks = new ArrayList<>();
+            int lo = 0;
+            for (int hi = offset > 0 ? offset : chunkSize; lo < size - 1; hi += chunkSize) {
+                final int chunkHi = Math.min(hi, size - 1);
+                chunks.add(new int[]{lo, chunkHi});
+                lo = chunkHi;
+            }
+            improvedInCycle |= ForkJoinPool.commonPool().invoke(new ImproveChunks(chunks, 0, chunks.size()));
+
+            if (step == ROUNDS_PER_CYCLE - 1) {
+                if (!improvedInCycle) {
+                    return;
+                }
+                improvedInCycle = false;
+            }
+        }
+    }
+
+    /**
+     * Improves positions lo..hi of the path until no 2-opt or Or-opt move inside the chunk helps.
+     * Positions lo and hi stay fixed unless hi is the end of the set.
+     * @return true if the path was changed
+     */
+    private boolean improveChunk(int lo, int hi) {
+        boolean improved = false;
+        boolean improving = true;
+        while (improving && System.nanoTime() < this.deadlineNanos) {
+            improving = this.twoOpt(lo, hi) | this.orOpt(lo, hi);
+            improved |= improving;
+        }
+        return improved;
+    }
+
+    /**
+     * Reverses segments i+1..j whenever that makes the transitions at both ends cheaper.
+     * Costs are symmetric, so the transitions inside the segment keep their cost.
+     */
+    private boolean twoOpt(int lo, int hi) {
+        final int[] path = this.path;
+        final boolean openEnd = hi == path.length - 1;
+        boolean improved = false;
+        for (int i = lo; i < hi - 1; i++) {
+            if ((i & 0xFF) == 0 && System.nanoTime() >= this.deadlineNanos) {
+                return improved;
+            }
+            final int a = path[i];
+            final int b = path[i + 1];
+            final float removedFirst = this.cost(a, b);
+            final int lastJ = openEnd ? hi : hi - 1;
+            for (int j = i + 2; j <= lastJ; j++) {
+                final int c = path[j];
+                final float delta;
+                if (j == path.length - 1) {
+                    delta = this.cost(a, c) - removedFirst;
+                } else {
+                    final int d = path[j + 1];
+                    delta = this.cost(a, c) + this.cost(b, d) - removedFirst - this.cost(c, d);
+                }
+                if (delta < -1e-4f) {
+                    reverse(path, i + 1, j);
+                    improved = true;
+                    break;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Moves segments of up to MAX_SEGMENT_LENGTH tracks to a cheaper place inside the chunk, optionally reversed.
+     */
+    private boolean orOpt(int lo, int hi) {
+        final int[] path = this.path;
+        final boolean openEnd = hi == path.length - 1;
+        final int lastMovable = openEnd ? hi : hi - 1;
+        boolean improved = false;
+        for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++) {
+            for (int start = lo + 1; start + length - 1 <= lastMovable; start++) {
+                if ((start & 0xFF) == 0 && System.nanoTime() >= this.deadlineNanos) {
+                    return improved;
+                }
+                final int end = start + length - 1;
+                final int prev = path[start - 1];
+                final int first = path[start];
+                final int last = path[end];
+                final boolean atEnd = end == path.length - 1;
+                final int next = atEnd ? -1 : path[end + 1];
+                final float removed = this.cost(prev, first) + (atEnd ? 0 : this.cost(last, next) - this.cost(prev, next));
+
+                // Insert between k and k + 1, or after the end of the set when k + 1 is past it
+                for (int k = lo; k <= hi; k++) {
+                    if (k >= start - 1 && k <= end) {
+                        continue;
+                    }
+                    final boolean afterEnd = k == path.length - 1;
+                    if (k == hi && !afterEnd) {
+                        continue;
+                    }
+                    final int before = path[k];
+                    final float forward = this.cost(before, first) + (afterEnd ? 0 : this.cost(last, path[k + 1]));
+                    final float reversed = this.cost(before, last) + (afterEnd ? 0 : this.cost(first, path[k + 1]));
+                    final float linkBroken = afterEnd ? 0 : this.cost(before, path[k + 1]);
+                    final float added = Math.min(forward, reversed) - linkBroken;
+                    if (added - removed < -1e-4f) {
+                        moveSegment(path, start, end, k, reversed < forward);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Moves path[start..end] right after position k, k is outside the segment.
+     */
+    private static void moveSegment(int[] path, int start, int end, int k, boolean reversed) {
+        final int length = end - start + 1;
+        final int[] segment = new int[length];
+        System.arraycopy(path, start, segment, 0, length);
+        if (reversed) {
+            reverse(segment, 0, length - 1);
+        }
+        if (k > end) {
+            System.arraycopy(path, end + 1, path, start, k - end);
+            System.arraycopy(segment, 0, path, k - length + 1, length);
+        } else {
+            System.arraycopy(path, k + 1, path, k + 1 + length, start - k - 1);
+            System.arraycopy(segment, 0, path, k + 1, length);
+        }
+    }
+
+    private static void reverse(int[] path, int from, int to) {
+        while (from < to) {
+            final int swap = path[from];
+            path[from++] = path[to];
+            path[to--] = swap;
+        }
+    }
+
+    private static int keyIndex(byte from, byte to) {
+        return (from + 1) * (Camelot.POSITIONS + 1) + to + 1;
+    }
+
+    /**
+     * Steps on the Camelot wheel: 0 for the same key, 1 for neighbours in the harmonies table,
+     * otherwise the distance between the numbers plus one for switching between minor and major.
+     */
+    private static float keyDistance(byte from, byte to) {
+        if (from == Camelot.NONE || to == Camelot.NONE) {
+            return UNKNOWN_KEY_DISTANCE;
+        }
+        if (from == to) {
+            return 0;
+        }
+        if (PlaylistParser.isHarmonic(from, to)) {
+            return 1;
+        }
+        final int numbers = Math.abs(from % 12 - to % 12);
+        final int wheelSteps = Math.min(numbers, 12 - numbers);
+        return wheelSteps + (from / 12 == to / 12 ? 0 : 1);
+    }
+
+    /**
+     * Splits the chunks of a round into fork/join tasks, one chunk per leaf.
+     */
+    private class ImproveChunks extends RecursiveTask<Boolean> {
+
+        private final List<int[]> chunks;
+        private final int from;
+        private final int to;
+
+        ImproveChunks(List<int[]> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (this.to - this.from == 1) {
+                final int[] chunk = this.chunks.get(this.from);
+                return improveChunk(chunk[0], chunk[1]);
+            }
+            final int middle = (this.from + this.to) >>> 1;
+            final ImproveChunks left = new ImproveChunks(this.chunks, this.from, middle);
+            left.fork();
+            final boolean right = new ImproveChunks(this.chunks, middle, this.to).compute();
+            return left.join() | right;
+        }
+    }
+}
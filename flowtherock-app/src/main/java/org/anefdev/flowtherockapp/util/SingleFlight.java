@@ -0,0 +1,187 @@
+package org.anefdev.flowtherockapp.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key into one pending load.
+ * <br>
+ * The first caller of a key starts the load, callers arriving while it is in flight wait for the same result.
+ * Every caller gets its own future: cancelling it only detaches that caller, the load itself is cancelled
+ * when the last waiting caller cancels. Failures are passed to all waiting callers.
+ * A key is forgotten as soon as its load completes, results are not cached here.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a single key, or joins the load of the key already in flight.
+     * @param key Key of the load
+     * @param loader Starts the load, only called if the key is not in flight
+     * @return Future of the loaded value, owned by this caller
+     */
+    public CompletableFuture<V> execute(K key, Supplier<? extends CompletableFuture<V>> loader) {
+        return this.executeAll(List.of(key), claimed -> {
+            final CompletableFuture<V> loaded = loader.get();
+            return StructuredFutures.cancelling(loaded.thenApply(value -> {
+                final Map<K, V> values = new HashMap<>();
+                values.put(key, value);
+                return values;
+            }), List.of(loaded));
+        }).get(key);
+    }
+
+    /**
+     * Loads several keys at once. Keys in flight are joined, all other keys are loaded by one call of the loader.
+     * @param keys Keys to load
+     * @param loader Starts the load of the keys not in flight, keys missing in its result complete with null
+     * @return Future of every distinct key in passed order, owned by this caller
+     */
+    public Map<K, CompletableFuture<V>> executeAll(Collection<K> keys,
+                                                   Function<List<K>, ? extends CompletableFuture<Map<K, V>>> loader) {
+        final Map<K, CompletableFuture<V>> views = new LinkedHashMap<>();
+        final Map<K, Flight<V>> claimed = new LinkedHashMap<>();
+        final Batch batch = new Batch();
+        for (K key : keys) {
+            if (views.containsKey(key)) {
+                continue;
+            }
+            while (true) {
+                final Flight<V> flight = this.flights.get(key);
+                if (flight == null) {
+                    final Flight<V> created = new Flight<>(batch);
+                    if (this.flights.putIfAbsent(key, created) == null) {
+                        batch.live.incrementAndGet();
+                        claimed.put(key, created);
+                        views.put(key, this.view(key, created));
+                        break;
+                    }
+                } else if (flight.join()) {
+                    views.put(key, this.view(key, flight));
+                    break;
+                } else {
+                    // Abandoned by all its callers, it is being removed
+                    this.flights.remove(key, flight);
+                }
+            }
+        }
+        if (claimed.isEmpty()) {
+            return views;
+        }
+
+        CompletableFuture<Map<K, V>> source;
+        try {
+            source = loader.apply(new ArrayList<>(claimed.keySet()));
+        } catch (Throwable e) {
+            // Also covers checked exceptions thrown sneakily, a claimed key must never stay in flight
+            source = CompletableFuture.failedFuture(e);
+        }
+        batch.start(source);
+        source.whenComplete((values, failure) -> claimed.forEach((key, flight) -> {
+            this.flights.remove(key, flight);
+            if (failure != null) {
+                flight.promise.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+            } else {
+                flight.promise.complete(values == null ? null : values.get(key));
+            }
+        }));
+        return views;
+    }
+
+    /**
+     * @return Number of keys in flight
+     */
+    public int size() {
+        return this.flights.size();
+    }
+
+    private CompletableFuture<V> view(K key, Flight<V> flight) {
+        final CompletableFuture<V> view = new CompletableFuture<>();
+        flight.promise.whenComplete((value, failure) -> {
+            if (failure != null) {
+                view.completeExceptionally(failure);
+            } else {
+                view.complete(value);
+            }
+        });
+        view.whenComplete((value, failure) -> {
+            if (view.isCancelled() && flight.leave()) {
+                this.flights.remove(key, flight);
+                flight.promise.cancel(false);
+                flight.batch.release();
+            }
+        });
+        return view;
+    }
+
+    private static class Flight<V> {
+
+        private final CompletableFuture<V> promise = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger(1);
+        private final Batch batch;
+
+        Flight(Batch batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * @return false if all callers already left and the flight is being abandoned
+         */
+        boolean join() {
+            int current;
+            do {
+                current = this.waiters.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!this.waiters.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * @return true if the last caller left
+         */
+        boolean leave() {
+            return this.waiters.decrementAndGet() == 0;
+        }
+    }
+
+    /**
+     * One loader call shared by the keys it claimed, cancelled when all of them are abandoned.
+     */
+    private static class Batch {
+
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile CompletableFuture<?> source;
+        private volatile boolean abandoned;
+
+        void start(CompletableFuture<?> source) {
+            this.source = source;
+            if (this.abandoned) {
+                source.cancel(true);
+            }
+        }
+
+        void release() {
+            if (this.live.decrementAndGet() == 0) {
+                this.abandoned = true;
+                final CompletableFuture<?> source = this.source;
+                if (source != null) {
+                    source.cancel(true);
+                }
+            }
+        }
+    }
+}
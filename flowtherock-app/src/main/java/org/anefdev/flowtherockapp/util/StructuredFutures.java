@@ -0,0 +1,67 @@
+package org.anefdev.flowtherockapp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Structured join of sibling futures: all succeed together or fail together.
+ * <br>
+ * Stands in for StructuredTaskScope.ShutdownOnFailure, which is still a preview API in Java 21.
+ */
+public class StructuredFutures {
+
+    /**
+     * Waits for all futures and returns their results in order.
+     * The first failure cancels every sibling that is still running and is rethrown.
+     * Interrupting the waiting thread cancels all siblings as well.
+     * @param futures Forked sibling futures
+     * @return Results in the order of the futures
+     */
+    public static <T> List<T> joinAll(List<? extends CompletableFuture<? extends T>> futures) {
+        final CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete((result, failure) -> {
+                if (failure != null) {
+                    all.completeExceptionally(failure);
+                }
+            });
+        }
+        try {
+            all.get();
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new CompletionException(e.getCause());
+        } catch (CancellationException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while joining");
+        }
+        final List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<? extends T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Propagates cancellation of a derived future to the futures it was built from.
+     * @param derived Future built from the sources, e.g. by thenCombine or allOf
+     * @param sources Futures to cancel together with the derived future
+     * @return The derived future
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, List<? extends CompletableFuture<?>> sources) {
+        derived.whenComplete((result, failure) -> {
+            if (derived.isCancelled()) {
+                sources.forEach(source -> source.cancel(true));
+            }
+        });
+        return derived;
+    }
+}
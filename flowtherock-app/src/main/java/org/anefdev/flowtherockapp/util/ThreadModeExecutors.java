@@ -0,0 +1,62 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for the configured thread mode, platform threads or virtual threads (spring.threads.virtual.enabled).
+ * <br>
+ * Tomcat follows the same property, so controller requests and the work they fan out switch together.
+ */
+public class ThreadModeExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadModeExecutors.class);
+
+    /**
+     * Creates an executor for passed thread mode.
+     * @param virtual true for virtual threads
+     * @param namePrefix Name prefix of platform threads
+     * @param platformThreads Pool size in platform mode
+     * @return Fixed platform thread pool or a virtual-thread-per-task executor
+     */
+    public static ExecutorService newExecutor(boolean virtual, String namePrefix, int platformThreads) {
+        if (virtual) {
+            LOGGER.info("newExecutor [ " + namePrefix + ": virtual threads ]");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1).factory());
+        }
+        return Executors.newFixedThreadPool(platformThreads, new NamedDaemonThreadFactory(namePrefix));
+    }
+
+    /**
+     * Creates a scheduler for periodic background work, always on platform threads.
+     * @param namePrefix Name prefix of the threads
+     * @param threads Pool size
+     * @return Scheduled thread pool of daemon threads
+     */
+    public static ScheduledExecutorService newScheduler(String namePrefix, int threads) {
+        return Executors.newScheduledThreadPool(threads, new NamedDaemonThreadFactory(namePrefix));
+    }
+
+    private static class NamedDaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedDaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.anefdev.flowtherockapp;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Track fixtures shared by the sorting, sequencing and index tests.
+ */
+public final class TestTracks {
+
+	private TestTracks() {
+	}
+
+	public static MusicTrack track(String id, String camelot, String bpm) {
+		MusicTrack track = new MusicTrack();
+		track.setId(id);
+		track.setCamelot(camelot);
+		track.setBpm(bpm);
+		return track;
+	}
+
+	public static List<String> ids(List<MusicTrack> tracks) {
+		List<String> ids = new ArrayList<>();
+		tracks.forEach(track -> ids.add(track.getId()));
+		return ids;
+	}
+}
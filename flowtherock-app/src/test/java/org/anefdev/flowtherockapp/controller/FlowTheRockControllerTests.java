@@ -0,0 +1,91 @@
+package org.anefdev.flowtherockapp.controller;
+
+import jakarta.servlet.http.Cookie;
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.TrackTable;
+import org.anefdev.flowtherockapp.service.FlowTheRockService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+
+import static org.anefdev.flowtherockapp.TestTracks.track;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class FlowTheRockControllerTests {
+
+	private final FlowTheRockService service = mock(FlowTheRockService.class);
+	// No warm-up service: a callback that gets past the state check fails with 500 instead of 403
+	private final MockMvc mvc = MockMvcBuilders.standaloneSetup(controller()).build();
+
+	@Test
+	void callbackWithoutStateCookieIsRejected() throws Exception {
+		mvc.perform(get("/flowtherock/api/callback").param("code", "code").param("state", "state"))
+				.andExpect(status().isForbidden());
+	}
+
+	@Test
+	void callbackWithOtherStateIsRejected() throws Exception {
+		mvc.perform(get("/flowtherock/api/callback").param("code", "code").param("state", "attacker")
+						.cookie(new Cookie(FlowTheRockController.STATE_COOKIE, "victim")))
+				.andExpect(status().isForbidden());
+	}
+
+	@Test
+	void playlistsAreNotModifiedUntilASnapshotChanges() throws Exception {
+		when(service.loadAllUsersPlaylists("session")).thenReturn(List.of(playlist("s1")));
+		String etag = mvc.perform(get("/flowtherock/api/playlists").header(FlowTheRockController.SESSION_HEADER, "session"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mvc.perform(get("/flowtherock/api/playlists").header(FlowTheRockController.SESSION_HEADER, "session")
+						.header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		when(service.loadAllUsersPlaylists("session")).thenReturn(List.of(playlist("s2")));
+		mvc.perform(get("/flowtherock/api/playlists").header(FlowTheRockController.SESSION_HEADER, "session")
+						.header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void unchangedPlaylistLoadedBeforeIsNotLoadedAgain() throws Exception {
+		TrackTable table = TrackTable.of(List.of(track("t1", "a1", "120.0")), "p1:s1:1");
+		when(service.loadPlaylist("session", "p1")).thenReturn(table.toTracks());
+		when(service.getPlaylistVersion("session")).thenReturn(table.version());
+		String etag = mvc.perform(get("/flowtherock/api/playlist/load").param("playlistId", "p1")
+						.header(FlowTheRockController.SESSION_HEADER, "session"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		when(service.switchToLoadedPlaylist("session", "p1")).thenReturn(table);
+		mvc.perform(get("/flowtherock/api/playlist/load").param("playlistId", "p1")
+						.header(FlowTheRockController.SESSION_HEADER, "session")
+						.header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		mvc.perform(get("/flowtherock/api/playlist/load").param("playlistId", "p1")
+						.header(FlowTheRockController.SESSION_HEADER, "session"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].id").value("t1"));
+
+		verify(service, times(1)).loadPlaylist("session", "p1");
+	}
+
+	private FlowTheRockController controller() {
+		FlowTheRockController controller = new FlowTheRockController();
+		controller.service = service;
+		return controller;
+	}
+
+	private static MusicPlaylist playlist(String snapshotId) {
+		return new MusicPlaylist("p1", "Playlist", 10, "https://i.scdn.co/image/p1", snapshotId);
+	}
+}
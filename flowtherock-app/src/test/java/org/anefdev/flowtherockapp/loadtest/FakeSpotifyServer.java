@@ -0,0 +1,276 @@
+package org.anefdev.flowtherockapp.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded stand-in for the Spotify Web API, serving generated fixtures for tests and profiling.
+ * <br>
+ * Serves the profile, the user's playlists, paged playlist items and saved tracks, several tracks, audio features
+ * and audio analysis under /v1, like api.spotify.com. Playlists share tracks from a common pool, so caching pays off
+ * like with real libraries, and a share of the tracks has no audio features, so the audio analysis fallback is used.
+ * Every response is delayed by the configured latency plus jitter, a configured share of requests is answered with 429.
+ */
+class FakeSpotifyServer implements AutoCloseable {
+
+	static final String USER_ID = "fake-user";
+
+	private static final int KEYS = 12;
+
+	private final Settings settings;
+	private final HttpServer server;
+	private final ExecutorService workers = Executors.newFixedThreadPool(64);
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<Map<String, Object>> tracks = new ArrayList<>();
+	private final Map<String, Map<String, Object>> tracksById = new HashMap<>();
+	private final Map<String, Map<String, Object>> featuresById = new HashMap<>();
+	private final Set<String> withoutFeatures = new HashSet<>();
+	private final Map<String, List<String>> playlistTrackIds = new LinkedHashMap<>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+
+	/**
+	 * @param playlists Number of playlists of the user
+	 * @param tracksPerPlaylist Number of items of every playlist
+	 * @param trackPool Number of distinct tracks the playlists are drawn from
+	 * @param noFeaturesShare Share of tracks without audio features
+	 * @param latencyMs Base latency of every response
+	 * @param jitterMs Maximum random latency added to the base latency
+	 * @param throttleShare Share of requests answered with 429
+	 * @param retryAfterSeconds Retry-After of 429 responses
+	 */
+	record Settings(int playlists, int tracksPerPlaylist, int trackPool, double noFeaturesShare,
+					long latencyMs, long jitterMs, double throttleShare, int retryAfterSeconds) {
+
+		static Settings defaults() {
+			return new Settings(20, 500, 5000, 0.03, 40, 40, 0.0, 1);
+		}
+	}
+
+	FakeSpotifyServer(Settings settings) throws IOException {
+		this.settings = settings;
+		this.generateFixtures(new Random(42));
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/v1/", this::handle);
+		this.server.setExecutor(this.workers);
+		this.server.start();
+	}
+
+	/**
+	 * @return Base URL of the API, to be used as spotify-api-base-url
+	 */
+	String baseUrl() {
+		return "http://localhost:" + this.port() + "/v1";
+	}
+
+	int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	List<String> playlistIds() {
+		return List.copyOf(this.playlistTrackIds.keySet());
+	}
+
+	long requests() {
+		return this.requests.get();
+	}
+
+	long throttled() {
+		return this.throttled.get();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.workers.shutdownNow();
+	}
+
+	private void generateFixtures(Random random) {
+		for (int i = 0; i < this.settings.trackPool(); i++) {
+			final String id = String.format("track%017d", i);
+			final Map<String, Object> track = new LinkedHashMap<>();
+			track.put("id", id);
+			track.put("type", "track");
+			track.put("uri", "spotify:track:" + id);
+			track.put("name", "Track " + i);
+			track.put("artists", List.of(Map.of("id", "artist" + i % 500, "name", "Artist " + i % 500, "type", "artist")));
+			track.put("album", Map.of("id", "album" + i % 2000, "name", "Album " + i % 2000, "type", "album"));
+			track.put("duration_ms", 150_000 + random.nextInt(240_000));
+			track.put("preview_url", "https://p.scdn.co/mp3-preview/" + id);
+			this.tracks.add(track);
+			this.tracksById.put(id, track);
+
+			final double tempo = random.nextDouble() < 0.65 ? 124 + random.nextGaussian() * 6 : 70 + random.nextDouble() * 110;
+			final Map<String, Object> features = new LinkedHashMap<>();
+			features.put("id", id);
+			features.put("type", "audio_features");
+			features.put("tempo", Math.round(tempo * 1000) / 1000.0);
+			features.put("key", random.nextInt(50) == 0 ? -1 : random.nextInt(KEYS));
+			features.put("mode", random.nextDouble() < 0.6 ? 1 : 0);
+			features.put("energy", Math.round(random.nextDouble() * 1000) / 1000.0);
+			this.featuresById.put(id, features);
+			if (random.nextDouble() < this.settings.noFeaturesShare()) {
+				this.withoutFeatures.add(id);
+			}
+		}
+		for (int p = 0; p < this.settings.playlists(); p++) {
+			final List<String> trackIds = new ArrayList<>(this.settings.tracksPerPlaylist());
+			for (int i = 0; i < this.settings.tracksPerPlaylist(); i++) {
+				trackIds.add((String) this.tracks.get(random.nextInt(this.tracks.size())).get("id"));
+			}
+			this.playlistTrackIds.put(String.format("playlist%014d", p), trackIds);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			this.requests.incrementAndGet();
+			final long jitter = this.settings.jitterMs() > 0 ? ThreadLocalRandom.current().nextLong(this.settings.jitterMs() + 1) : 0;
+			Thread.sleep(this.settings.latencyMs() + jitter);
+
+			final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			if (authorization == null || !authorization.startsWith("Bearer ")) {
+				this.send(exchange, 401, error(401, "No token provided"));
+				return;
+			}
+			if (ThreadLocalRandom.current().nextDouble() < this.settings.throttleShare()) {
+				this.throttled.incrementAndGet();
+				exchange.getResponseHeaders().add("Retry-After", String.valueOf(this.settings.retryAfterSeconds()));
+				this.send(exchange, 429, error(429, "API rate limit exceeded"));
+				return;
+			}
+			final Object body = this.route(exchange.getRequestURI().getPath(), query(exchange.getRequestURI().getRawQuery()));
+			if (body == null) {
+				this.send(exchange, 404, error(404, "Not found"));
+			} else {
+				this.send(exchange, 200, body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Object route(String path, Map<String, String> query) {
+		final String[] parts = path.substring("/v1/".length()).split("/");
+		final int limit = Integer.parseInt(query.getOrDefault("limit", "20"));
+		final int offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+		switch (parts[0]) {
+			case "me":
+				if (parts.length == 1) {
+					return Map.of("id", USER_ID, "type", "user", "display_name", "Fake User", "email", "fake@example.com",
+							"uri", "spotify:user:" + USER_ID, "images", List.of(Map.of("url", "https://i.scdn.co/image/fake")));
+				}
+				if (parts[1].equals("tracks")) {
+					// Saved tracks: the first playlist
+					final List<String> savedIds = this.playlistTrackIds.values().iterator().next();
+					return paging(savedIds.stream()
+							.map(trackId -> (Object) Map.of("added_at", "2020-01-01T00:00:00Z", "track", this.tracksById.get(trackId)))
+							.toList(), limit, offset);
+				}
+				return null;
+			case "users":
+				return paging(this.playlistTrackIds.entrySet().stream()
+						.map(playlist -> (Object) this.playlistSummary(playlist.getKey(), playlist.getValue().size()))
+						.toList(), limit, offset);
+			case "playlists":
+				final List<String> trackIds = this.playlistTrackIds.get(parts[1]);
+				if (trackIds == null) {
+					return null;
+				}
+				if (parts.length == 2) {
+					// The snapshot ID never changes, the fixtures are immutable
+					return Map.of("id", parts[1], "type", "playlist", "snapshot_id", "snapshot-" + parts[1]);
+				}
+				return paging(trackIds.stream()
+						.map(trackId -> (Object) Map.of("added_at", "2020-01-01T00:00:00Z", "is_local", false,
+								"track", this.tracksById.get(trackId)))
+						.toList(), limit, offset);
+			case "tracks":
+				return Map.of("tracks", ids(query).stream().map(this.tracksById::get).toList());
+			case "audio-features":
+				return Map.of("audio_features", ids(query).stream()
+						.map(trackId -> this.withoutFeatures.contains(trackId) ? null : this.featuresById.get(trackId))
+						.toList());
+			case "audio-analysis":
+				final Map<String, Object> features = this.featuresById.get(parts[1]);
+				if (features == null) {
+					return null;
+				}
+				return Map.of("meta", Map.of("status_code", 0), "track", Map.of(
+						"tempo", features.get("tempo"), "key", features.get("key"), "mode", features.get("mode")));
+			default:
+				return null;
+		}
+	}
+
+	private Map<String, Object> playlistSummary(String playlistId, int total) {
+		return Map.of("id", playlistId, "type", "playlist", "name", "Playlist " + playlistId,
+				"snapshot_id", "snapshot-" + playlistId,
+				"images", List.of(Map.of("url", "https://i.scdn.co/image/" + playlistId)),
+				"tracks", Map.of("href", "", "total", total));
+	}
+
+	private static Map<String, Object> paging(List<Object> items, int limit, int offset) {
+		final Map<String, Object> page = new HashMap<>();
+		page.put("href", "");
+		page.put("items", items.subList(Math.min(offset, items.size()), Math.min(offset + limit, items.size())));
+		page.put("limit", limit);
+		page.put("offset", offset);
+		page.put("total", items.size());
+		page.put("next", null);
+		page.put("previous", null);
+		return page;
+	}
+
+	private static Map<String, Object> error(int status, String message) {
+		return Map.of("error", Map.of("status", status, "message", message));
+	}
+
+	private static List<String> ids(Map<String, String> query) {
+		return Arrays.asList(query.getOrDefault("ids", "").split(","));
+	}
+
+	private static Map<String, String> query(String rawQuery) {
+		final Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) {
+			return query;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			final int split = parameter.indexOf('=');
+			if (split > 0) {
+				query.put(URLDecoder.decode(parameter.substring(0, split), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(split + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return query;
+	}
+
+	private void send(HttpExchange exchange, int status, Object body) throws IOException {
+		final byte[] json = this.mapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, json.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(json);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package org.anefdev.flowtherockapp.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays concurrent user sessions against /flowtherock/api and reports latency percentiles and throughput per step.
+ * <br>
+ * Every session runs the scenario for the given number of rounds on its own thread, all sessions start together.
+ */
+class LoadDriver {
+
+	private final String apiUrl;
+	private final HttpClient httpClient = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	private final Map<String, ConcurrentLinkedQueue<Long>> latencies = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+	/**
+	 * One user's run of the scenario.
+	 */
+	interface Scenario {
+		void run(Session session, int round) throws Exception;
+	}
+
+	/**
+	 * @param appUrl Base URL of the running app, e.g. http://localhost:8080
+	 */
+	LoadDriver(String appUrl) {
+		this.apiUrl = appUrl + "/flowtherock/api";
+	}
+
+	/**
+	 * Runs the scenario for all sessions and waits until all are done.
+	 * @param sessionIds IDs of the sessions, one concurrent user each
+	 * @param rounds Runs of the scenario per user
+	 * @param scenario Requests of one run
+	 * @return Report of the run
+	 */
+	Report run(List<String> sessionIds, int rounds, Scenario scenario) throws Exception {
+		final ExecutorService users = Executors.newFixedThreadPool(sessionIds.size());
+		final long started = System.nanoTime();
+		try {
+			final List<Future<?>> runs = new ArrayList<>();
+			for (String sessionId : sessionIds) {
+				final Session session = new Session(sessionId);
+				runs.add(users.submit(() -> {
+					for (int round = 0; round < rounds; round++) {
+						scenario.run(session, round);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> run : runs) {
+				run.get();
+			}
+		} finally {
+			users.shutdownNow();
+		}
+		return new Report(System.nanoTime() - started, this.latencies, this.errors);
+	}
+
+	class Session {
+
+		private final String sessionId;
+
+		Session(String sessionId) {
+			this.sessionId = sessionId;
+		}
+
+		/**
+		 * Sends a GET request of the session and records its latency under the step name.
+		 * @param step Name of the step in the report
+		 * @param path Path below /flowtherock/api, with query
+		 * @return Response body, null if the response was not 2xx
+		 */
+		String get(String step, String path) throws Exception {
+			final HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl + path))
+					.header("X-Session-Id", this.sessionId)
+					.timeout(Duration.ofMinutes(5))
+					.GET()
+					.build();
+			final long started = System.nanoTime();
+			final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+			latencies.computeIfAbsent(step, name -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - started);
+			if (response.statusCode() / 100 != 2) {
+				errors.computeIfAbsent(step, name -> new AtomicLong()).incrementAndGet();
+				return null;
+			}
+			return response.body();
+		}
+	}
+
+	static class Report {
+
+		private final long wallNanos;
+		private final Map<String, long[]> latencies = new TreeMap<>();
+		private final Map<String, Long> errors = new TreeMap<>();
+
+		Report(long wallNanos, Map<String, ConcurrentLinkedQueue<Long>> latencies, Map<String, AtomicLong> errors) {
+			this.wallNanos = wallNanos;
+			latencies.forEach((step, values) -> {
+				final long[] sorted = values.stream().mapToLong(Long::longValue).toArray();
+				Arrays.sort(sorted);
+				this.latencies.put(step, sorted);
+			});
+			errors.forEach((step, count) -> this.errors.put(step, count.get()));
+		}
+
+		long errors() {
+			return this.errors.values().stream().mapToLong(Long::longValue).sum();
+		}
+
+		long requests() {
+			return this.latencies.values().stream().mapToLong(values -> values.length).sum();
+		}
+
+		/**
+		 * @return Latency percentile of the step in milliseconds
+		 */
+		double percentileMs(String step, double percentile) {
+			final long[] sorted = this.latencies.get(step);
+			final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+			return sorted[Math.max(0, rank - 1)] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			final double wallSeconds = this.wallNanos / 1e9;
+			final StringBuilder report = new StringBuilder(String.format("%-16s %8s %7s %10s %10s %10s%n",
+					"step", "requests", "errors", "p50 ms", "p99 ms", "req/s"));
+			this.latencies.forEach((step, sorted) -> report.append(String.format("%-16s %8d %7d %10.1f %10.1f %10.1f%n",
+					step, sorted.length, this.errors.getOrDefault(step, 0L),
+					this.percentileMs(step, 50), this.percentileMs(step, 99), sorted.length / wallSeconds)));
+			report.append(String.format("%d requests in %.1f s, %.1f req/s%n", this.requests(), wallSeconds, this.requests() / wallSeconds));
+			return report.toString();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.anefdev.flowtherockapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.anefdev.flowtherockapp.service.SessionStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end load test of the app against the fake Spotify API, skipped unless run with -Dloadtest=true.
+ * <br>
+ * mvn test -Dtest=LoadTests -Dloadtest=true [-Dloadtest.users=20 -Dloadtest.rounds=5 -Dloadtest.latency-ms=40
+ * -Dloadtest.jitter-ms=40 -Dloadtest.throttle-share=0.0]
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class LoadTests {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTests.class);
+
+	private static FakeSpotifyServer spotify;
+
+	@Autowired
+	private SessionStore sessions;
+	@LocalServerPort
+	private int port;
+
+	@DynamicPropertySource
+	static void spotifyProperties(DynamicPropertyRegistry registry) throws IOException {
+		final FakeSpotifyServer.Settings defaults = FakeSpotifyServer.Settings.defaults();
+		spotify = new FakeSpotifyServer(new FakeSpotifyServer.Settings(
+				defaults.playlists(),
+				defaults.tracksPerPlaylist(),
+				defaults.trackPool(),
+				defaults.noFeaturesShare(),
+				Long.getLong("loadtest.latency-ms", defaults.latencyMs()),
+				Long.getLong("loadtest.jitter-ms", defaults.jitterMs()),
+				Double.parseDouble(System.getProperty("loadtest.throttle-share", String.valueOf(defaults.throttleShare()))),
+				defaults.retryAfterSeconds()));
+		registry.add("spotify-api-base-url", spotify::baseUrl);
+		// Every run starts with a cold disk tier
+		registry.add("track-cache-disk-path", () -> createTempDir() + "/track-cache.mv.db");
+	}
+
+	@AfterAll
+	static void stopSpotify() {
+		spotify.close();
+	}
+
+	@Test
+	void concurrentUsersLoadAndSortPlaylists() throws Exception {
+		final int users = Integer.getInteger("loadtest.users", 20);
+		final int rounds = Integer.getInteger("loadtest.rounds", 5);
+		final List<String> sessionIds = new ArrayList<>();
+		for (int i = 0; i < users; i++) {
+			// The OAuth callback cannot be faked, sessions get their token directly
+			final SpotifyApi spotifyApi = new SpotifyApi.Builder()
+					.setAccessToken("fake-token-" + i)
+					.setScheme("http")
+					.setHost("localhost")
+					.setPort(spotify.port())
+					.build();
+			sessionIds.add(sessions.create(spotifyApi).getId());
+		}
+		final ObjectMapper mapper = new ObjectMapper();
+
+		final LoadDriver.Report report = new LoadDriver("http://localhost:" + port).run(sessionIds, rounds, (session, round) -> {
+			if (round == 0) {
+				session.get("user", "/user");
+			}
+			// A failed step is counted as an error of the step, the rest of the round depends on its response
+			final String playlistsBody = session.get("playlists", "/playlists");
+			if (playlistsBody == null) {
+				return;
+			}
+			final JsonNode playlists = mapper.readTree(playlistsBody);
+			final String playlistId = playlists.get(ThreadLocalRandom.current().nextInt(playlists.size())).get("id").asText();
+			final String tracksBody = session.get("playlist-load", "/playlist/load?playlistId=" + playlistId);
+			if (tracksBody == null) {
+				return;
+			}
+			final JsonNode tracks = mapper.readTree(tracksBody);
+			final String trackId = tracks.get(ThreadLocalRandom.current().nextInt(tracks.size())).get("id").asText();
+			session.get("playlist-sort", "/playlist/sort?trackId=" + trackId);
+			session.get("playlist-sequence", "/playlist/sequence?trackId=" + trackId);
+		});
+
+		LOGGER.info("concurrentUsersLoadAndSortPlaylists [ " + users + " users, " + rounds + " rounds ]\n" + report);
+		LOGGER.info("concurrentUsersLoadAndSortPlaylists [ Spotify requests: " + spotify.requests()
+				+ ", throttled: " + spotify.throttled() + " ]");
+		assertEquals(0, report.errors());
+	}
+
+	private static String createTempDir() {
+		try {
+			return Files.createTempDirectory("flowtherock-loadtest").toString();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.anefdev.flowtherockapp.util.Camelot;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.anefdev.flowtherockapp.TestTracks.track;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CamelotIndexTests {
+
+	private static final byte A8 = Camelot.encode("a8");
+	private static final byte B3 = Camelot.encode("b3");
+
+	@Test
+	void emptyBucketsHaveNoRows() {
+		CamelotIndex index = TrackTable.of(List.of(track("a", "a8", "120.0"))).camelotIndex();
+
+		assertEquals(0, index.ascending(B3).length);
+		assertEquals(0, index.descending(B3).length);
+		assertEquals(0, index.unknownBpm(B3).length);
+		assertEquals(0, index.countBelow(B3, 120f));
+	}
+
+	@Test
+	void rowsWithoutTempoAreKeptApartInRowOrder() {
+		CamelotIndex index = TrackTable.of(List.of(
+				track("r0", "a8", null),
+				track("r1", "a8", "120.0"),
+				track("r2", "a8", null),
+				track("r3", null, null))).camelotIndex();
+
+		assertArrayEquals(new int[]{1}, index.ascending(A8));
+		assertArrayEquals(new int[]{1}, index.descending(A8));
+		assertArrayEquals(new int[]{0, 2}, index.unknownBpm(A8));
+		assertEquals(0, index.countBelow(A8, 120f));
+		assertEquals(1, index.countBelow(A8, 121f));
+	}
+
+	@Test
+	void tiesKeepRowOrderInBothDirections() {
+		CamelotIndex index = TrackTable.of(List.of(
+				track("r0", "a8", "120.0"),
+				track("r1", "a8", "130.0"),
+				track("r2", "a8", "100.0"),
+				track("r3", "a8", "120.0"))).camelotIndex();
+
+		assertArrayEquals(new int[]{2, 0, 3, 1}, index.ascending(A8));
+		assertArrayEquals(new int[]{1, 0, 3, 2}, index.descending(A8));
+	}
+
+	@Test
+	void countBelowExcludesTiesAtTheBoundary() {
+		CamelotIndex index = TrackTable.of(List.of(
+				track("r0", "a8", "100.0"),
+				track("r1", "a8", "120.0"),
+				track("r2", "a8", "120.0"),
+				track("r3", "a8", "130.0"))).camelotIndex();
+
+		assertEquals(0, index.countBelow(A8, 99f));
+		assertEquals(0, index.countBelow(A8, 100f));
+		assertEquals(1, index.countBelow(A8, 120f));
+		assertEquals(3, index.countBelow(A8, Math.nextUp(120f)));
+		assertEquals(4, index.countBelow(A8, 131f));
+	}
+}
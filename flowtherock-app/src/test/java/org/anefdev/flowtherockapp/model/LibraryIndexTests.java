@@ -0,0 +1,77 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.anefdev.flowtherockapp.TestTracks.ids;
+import static org.anefdev.flowtherockapp.TestTracks.track;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LibraryIndexTests {
+
+	@Test
+	void nextRanksHarmonicTracksByKeyStepAndTempoDeviation() {
+		LibraryIndex index = LibraryIndex.builder().add(List.of(
+				track("seed", "a8", "120.0"),
+				track("same", "a8", "121.0"),
+				track("harmonic", "a9", "120.0"),
+				track("double", "b8", "242.0"),
+				track("half", "a7", "60.6"),
+				track("clash", "b2", "120.0"),
+				track("tooFast", "a8", "135.0"))).build();
+
+		List<MusicTrack> next = index.next("seed", 10, 0.06f);
+
+		assertEquals(List.of("same", "harmonic", "double", "half"), ids(next));
+		assertTrue(next.stream().allMatch(MusicTrack::isMatched));
+	}
+
+	@Test
+	void builderDeduplicatesById() {
+		LibraryIndex index = LibraryIndex.builder()
+				.add(List.of(track("seed", "a8", "120.0"), track("same", "a8", "121.0")))
+				.add(List.of(track("same", "a8", "121.0"), track("seed", "a8", "120.0")))
+				.build();
+
+		assertEquals(2, index.size());
+		assertEquals(List.of("same"), ids(index.next("seed", 10, 0.06f)));
+	}
+
+	@Test
+	void nextLimitsResults() {
+		List<MusicTrack> tracks = new ArrayList<>();
+		tracks.add(track("seed", "b4", "100.0"));
+		for (int i = 0; i < 100; i++) {
+			tracks.add(track("id" + i, "b4", String.valueOf(100 + i * 0.05f)));
+		}
+
+		List<MusicTrack> next = LibraryIndex.builder().add(tracks).build().next("seed", 5, 0.06f);
+
+		assertEquals(List.of("id0", "id1", "id2", "id3", "id4"), ids(next));
+	}
+
+	@Test
+	void builderRemembersUnresolvedIds() {
+		LibraryIndex.Builder builder = LibraryIndex.builder()
+				.add(List.of(track("seed", "a8", "120.0")))
+				.addUnresolved(List.of("seed", "local"));
+
+		assertTrue(builder.isKnown("seed"));
+		assertTrue(builder.isKnown("local"));
+		assertFalse(builder.isKnown("other"));
+		assertEquals(1, builder.build().size());
+	}
+
+	@Test
+	void tracksOfTheSameTempoStayInTheOrderTheyWereAdded() {
+		LibraryIndex index = LibraryIndex.builder()
+				.add(List.of(track("seed", "a8", "120.0"), track("first", "a8", "121.0")))
+				.add(List.of(track("second", "a8", "121.0")))
+				.build();
+
+		assertEquals(List.of("first", "second"), ids(index.next("seed", 10, 0.06f)));
+	}
+
+}
@@ -0,0 +1,30 @@
+package org.anefdev.flowtherockapp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackColumnsTests {
+
+	@Test
+	void ofEncodesRepeatedValuesOnce() {
+		MusicTrack first = new MusicTrack("id1", "One", "Artist", "Album", 1000, "120.5", "A-Min", "MINOR", "a8", true,
+				"https://p.scdn.co/mp3-preview/abc", 0.5f);
+		MusicTrack second = new MusicTrack("id2", "Two", "Artist", null, null, null, "A-Min", "MINOR", "a8", false,
+				"https://p.scdn.co/mp3-preview/abd", null);
+
+		TrackColumns columns = TrackColumns.of(List.of(first, second));
+
+		assertEquals(2, columns.getSize());
+		assertArrayEquals(new String[]{"id1", "id2"}, columns.getId());
+		assertEquals(List.of("Artist"), columns.getArtist().values());
+		assertArrayEquals(new int[]{0, 0}, columns.getArtist().rows());
+		assertArrayEquals(new int[]{0, -1}, columns.getAlbum().rows());
+		assertArrayEquals(new Float[]{120.5f, null}, columns.getBpm());
+		assertArrayEquals(new boolean[]{true, false}, columns.getMatched());
+		assertEquals("https://p.scdn.co/mp3-preview/ab", columns.getPreviewUrlPrefix());
+		assertArrayEquals(new String[]{"c", "d"}, columns.getPreviewUrl());
+	}
+}
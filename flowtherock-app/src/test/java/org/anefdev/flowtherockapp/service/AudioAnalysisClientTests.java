@@ -0,0 +1,112 @@
+package org.anefdev.flowtherockapp.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioAnalysisClientTests {
+
+	private static final String ANALYSIS = """
+			{"meta": {"status_code": 0}, "track": {"tempo": 124.0, "key": 9, "mode": 0}, "bars": []}
+			""";
+
+	// Statuses answered per track, in order; the last one repeats, unknown tracks get 404
+	private final Map<String, Deque<Integer>> statuses = new ConcurrentHashMap<>();
+	private final Queue<String> paths = new ConcurrentLinkedQueue<>();
+	private final SpotifyApi spotifyApi = SpotifyApi.builder().setAccessToken("token").build();
+	private HttpServer server;
+	private SpotifyRequestExecutor executor;
+	private AudioAnalysisClient client;
+
+	@BeforeEach
+	void start() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/v1/", this::handle);
+		this.server.start();
+		this.executor = new SpotifyRequestExecutor(2, 4, 1500, 1, false, null,
+				new PipelineMetrics(new SimpleMeterRegistry()));
+		this.client = new AudioAnalysisClient("http://localhost:" + this.server.getAddress().getPort() + "/v1", true, this.executor);
+	}
+
+	@AfterEach
+	void stop() {
+		this.server.stop(0);
+		this.executor.shutdown();
+	}
+
+	@Test
+	void throttledTracksAreRetried() {
+		this.statuses.put("t1", new ArrayDeque<>(List.of(429, 200)));
+
+		Map<String, MusicTrack> tracks = this.client.loadTrackSections(this.spotifyApi, List.of("t1")).join();
+
+		assertEquals("124.0", tracks.get("t1").getBpm());
+		assertEquals("MINOR", tracks.get("t1").getMode());
+		assertEquals(2, this.paths.size());
+	}
+
+	@Test
+	void tracksWithoutAnalysisAreLeftOut() {
+		this.statuses.put("t1", new ArrayDeque<>(List.of(200)));
+
+		Map<String, MusicTrack> tracks = this.client.loadTrackSections(this.spotifyApi, List.of("t1", "t2/..")).join();
+
+		assertEquals(List.of("t1"), List.copyOf(tracks.keySet()));
+		// The ID is one encoded path segment
+		assertTrue(this.paths.contains("/v1/audio-analysis/t2%2F.."));
+	}
+
+	@Test
+	void throttlingBeyondTheRetriesFailsTheLoad() {
+		this.statuses.put("t1", new ArrayDeque<>(List.of(200)));
+		this.statuses.put("t2", new ArrayDeque<>(List.of(429)));
+
+		CompletionException e = assertThrows(CompletionException.class,
+				() -> this.client.loadTrackSections(this.spotifyApi, List.of("t1", "t2")).join());
+
+		assertInstanceOf(TooManyRequestsException.class, e.getCause());
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getRawPath();
+		this.paths.add(path);
+		final Deque<Integer> trackStatuses = this.statuses.get(path.substring(path.lastIndexOf('/') + 1));
+		final int status;
+		if (trackStatuses == null) {
+			status = 404;
+		} else {
+			synchronized (trackStatuses) {
+				status = trackStatuses.size() > 1 ? trackStatuses.poll() : trackStatuses.peek();
+			}
+		}
+		final byte[] body = (status == 200 ? ANALYSIS : "{\"error\": {\"status\": " + status + "}}").getBytes(StandardCharsets.UTF_8);
+		if (status == 429) {
+			exchange.getResponseHeaders().add("Retry-After", "0");
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.anefdev.flowtherockapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpotifyRequestExecutorTests {
+
+	private final SpotifyRequestExecutor executor = new SpotifyRequestExecutor(1, 4, 1500, 1, false, null,
+			new PipelineMetrics(new SimpleMeterRegistry()));
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void errorOfACallGivesItsSlotBack() throws Exception {
+		CompletionException e = assertThrows(CompletionException.class, () -> executor.submitCall("error", null, () -> {
+			throw new StackOverflowError();
+		}).join());
+
+		assertInstanceOf(StackOverflowError.class, e.getCause());
+		assertEquals(0, executor.getInFlight());
+		// With a window of one slot, a leaked slot would block every later call
+		assertEquals("ok", executor.submitCall("ok", null, () -> "ok").get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void asyncCallWaitsForItsSlotInTheSharedWindow() throws Exception {
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<String> blocking = executor.submitCall("blocking", null, () -> {
+			holding.countDown();
+			release.await();
+			return "blocking";
+		});
+		// The only slot of the window is taken
+		holding.await();
+		AtomicBoolean sent = new AtomicBoolean();
+
+		CompletableFuture<String> async = executor.submitAsync("async", null, () -> {
+			sent.set(true);
+			return CompletableFuture.completedFuture("async");
+		});
+
+		Thread.sleep(100);
+		assertFalse(sent.get());
+		release.countDown();
+		assertEquals("async", async.get(5, TimeUnit.SECONDS));
+		assertEquals("blocking", blocking.get(5, TimeUnit.SECONDS));
+		assertEquals(0, executor.getInFlight());
+	}
+
+	@Test
+	void cancelledAsyncCallLeavesTheQueue() throws Exception {
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.submitCall("blocking", null, () -> {
+			holding.countDown();
+			release.await();
+			return "blocking";
+		});
+		// The only slot of the window is taken
+		holding.await();
+		AtomicBoolean sent = new AtomicBoolean();
+		CompletableFuture<String> cancelled = executor.submitAsync("cancelled", null, () -> {
+			sent.set(true);
+			return CompletableFuture.completedFuture("cancelled");
+		});
+
+		cancelled.cancel(true);
+		release.countDown();
+
+		assertEquals("ok", executor.submitAsync("ok", null, () -> CompletableFuture.completedFuture("ok")).get(5, TimeUnit.SECONDS));
+		assertFalse(sent.get());
+		assertEquals(0, executor.getInFlight());
+	}
+
+	@Test
+	void throttledAsyncCallIsRetried() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+
+		String response = executor.submitAsync("throttled", null, () -> attempts.incrementAndGet() == 1
+				? CompletableFuture.failedFuture(new TooManyRequestsException("throttled", 0))
+				: CompletableFuture.completedFuture("ok")).get(5, TimeUnit.SECONDS);
+
+		assertEquals("ok", response);
+		assertEquals(2, attempts.get());
+		assertEquals(0, executor.getInFlight());
+	}
+}
@@ -0,0 +1,263 @@
+package org.anefdev.flowtherockapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpotifyTokenManagerTests {
+
+	private final PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+	private final SessionStore sessions = new SessionStore(60, 1000, metrics);
+	private final StubSpotify spotify = new StubSpotify();
+	private final SpotifyApi spotifyApi = SpotifyApi.builder()
+			.setClientId("client")
+			.setClientSecret("secret")
+			.setAccessToken("token-0")
+			.setRefreshToken("refresh")
+			.setHttpManager(spotify)
+			.build();
+	private final List<SpotifyTokenManager> managers = new ArrayList<>();
+
+	@AfterEach
+	void shutdown() {
+		managers.forEach(SpotifyTokenManager::shutdown);
+	}
+
+	@Test
+	void concurrentRefreshesShareOneTokenRequest() throws Exception {
+		SpotifyTokenManager tokens = manager(300, 100);
+		tokens.register("session", spotifyApi, 3600);
+		spotify.tokenResponses = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+
+		List<CompletableFuture<Boolean>> refreshed = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			refreshed.add(CompletableFuture.supplyAsync(() -> tokens.refreshRejected(spotifyApi, "token-0"), callers));
+		}
+		// Callers arriving while the token request is held wait for it instead of sending their own
+		await(() -> spotify.tokenRequests.get() == 1);
+		Thread.sleep(100);
+		spotify.tokenResponses.countDown();
+
+		for (CompletableFuture<Boolean> result : refreshed) {
+			assertTrue(result.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, spotify.tokenRequests.get());
+		assertEquals("token-1", spotifyApi.getAccessToken());
+		callers.shutdownNow();
+	}
+
+	@Test
+	void staleTokenIsNotRefreshedAgain() {
+		SpotifyTokenManager tokens = manager(300, 100);
+		tokens.register("session", spotifyApi, 3600);
+
+		assertTrue(tokens.refreshRejected(spotifyApi, "token-0"));
+		// A request sent with the old token fails after the refresh and finds the new one
+		assertTrue(tokens.refreshRejected(spotifyApi, "token-0"));
+
+		assertEquals(1, spotify.tokenRequests.get());
+		assertEquals("token-1", spotifyApi.getAccessToken());
+	}
+
+	@Test
+	void unknownClientIsNotRefreshed() {
+		SpotifyTokenManager tokens = manager(300, 100);
+
+		assertFalse(tokens.refreshRejected(spotifyApi, "token-0"));
+		assertEquals(0, spotify.tokenRequests.get());
+	}
+
+	@Test
+	void rejectedRequestIsRetriedOnceWithRefreshedToken() {
+		SpotifyTokenManager tokens = manager(300, 100);
+		tokens.register("session", spotifyApi, 3600);
+		SpotifyRequestExecutor executor = executor(tokens);
+		spotify.rejectedTokens.add("token-0");
+
+		String userId = executor.execute("me", spotifyApi, () -> spotifyApi.getCurrentUsersProfile().build()).getId();
+
+		assertEquals("user", userId);
+		assertEquals(List.of("Bearer token-0", "Bearer token-1"), spotify.profileRequests);
+		assertEquals(1, spotify.tokenRequests.get());
+		executor.shutdown();
+	}
+
+	@Test
+	void rejectedAsyncCallIsRetriedOnceWithRefreshedToken() throws Exception {
+		SpotifyTokenManager tokens = manager(300, 100);
+		tokens.register("session", spotifyApi, 3600);
+		SpotifyRequestExecutor executor = executor(tokens);
+		spotify.rejectedTokens.add("token-0");
+
+		String userId = executor.submitAsync("me", spotifyApi,
+				() -> CompletableFuture.supplyAsync(() -> {
+					try {
+						return spotifyApi.getCurrentUsersProfile().build().execute().getId();
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+				})).get(5, TimeUnit.SECONDS);
+
+		assertEquals("user", userId);
+		assertEquals(List.of("Bearer token-0", "Bearer token-1"), spotify.profileRequests);
+		assertEquals(1, spotify.tokenRequests.get());
+		executor.shutdown();
+	}
+
+	@Test
+	void requestRejectedAfterRefreshFails() {
+		SpotifyTokenManager tokens = manager(300, 100);
+		tokens.register("session", spotifyApi, 3600);
+		SpotifyRequestExecutor executor = executor(tokens);
+		spotify.rejectedTokens.addAll(List.of("token-0", "token-1"));
+
+		assertThrows(UnauthorizedException.class,
+				() -> executor.execute("me", spotifyApi, () -> spotifyApi.getCurrentUsersProfile().build()));
+
+		assertEquals(2, spotify.profileRequests.size());
+		assertEquals(1, spotify.tokenRequests.get());
+		executor.shutdown();
+	}
+
+	@Test
+	void failedRenewalIsRetriedBeforeExpiry() throws InterruptedException {
+		// Renewal 1 s before the expiry in 2 s, retries 100 ms apart
+		SpotifyTokenManager tokens = manager(1, 100);
+		UserSession session = sessions.create(spotifyApi);
+		spotify.failingTokenRequests.set(2);
+
+		tokens.register(session.getId(), spotifyApi, 2);
+
+		await(() -> "token-3".equals(spotifyApi.getAccessToken()));
+		assertEquals(3, spotify.tokenRequests.get());
+	}
+
+	@Test
+	void failedRenewalIsNotRetriedAfterExpiry() throws InterruptedException {
+		// Renewal 1 s before the expiry in 2 s, the retry would come after the expiry
+		SpotifyTokenManager tokens = manager(1, 5000);
+		UserSession session = sessions.create(spotifyApi);
+		spotify.failingTokenRequests.set(1);
+
+		tokens.register(session.getId(), spotifyApi, 2);
+
+		await(() -> spotify.tokenRequests.get() == 1);
+		Thread.sleep(1500);
+		assertEquals(1, spotify.tokenRequests.get());
+		assertEquals("token-0", spotifyApi.getAccessToken());
+	}
+
+	@Test
+	void renewalStopsWithTheSession() throws InterruptedException {
+		SpotifyTokenManager tokens = manager(1, 100);
+
+		// The session was never stored, like one that expired before its renewal
+		tokens.register("expired", spotifyApi, 1);
+
+		Thread.sleep(500);
+		assertEquals(0, spotify.tokenRequests.get());
+		assertEquals("token-0", spotifyApi.getAccessToken());
+	}
+
+	private SpotifyTokenManager manager(long leadSeconds, long retryDelayMs) {
+		SpotifyTokenManager tokens = new SpotifyTokenManager(sessions, leadSeconds, 0, retryDelayMs, 2);
+		managers.add(tokens);
+		return tokens;
+	}
+
+	private SpotifyRequestExecutor executor(SpotifyTokenManager tokens) {
+		return new SpotifyRequestExecutor(2, 4, 1500, 0, false, tokens, metrics);
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out");
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Token endpoint and profile endpoint of the Spotify client, answered without network.
+	 * The token endpoint hands out token-1, token-2, ... in order of the token requests.
+	 */
+	private static class StubSpotify implements IHttpManager {
+
+		final AtomicInteger tokenRequests = new AtomicInteger();
+		final AtomicInteger failingTokenRequests = new AtomicInteger();
+		final Set<String> rejectedTokens = ConcurrentHashMap.newKeySet();
+		final List<String> profileRequests = new ArrayList<>();
+		volatile CountDownLatch tokenResponses = new CountDownLatch(0);
+
+		@Override
+		public String post(URI uri, Header[] headers, HttpEntity body) throws IOException, BadRequestException {
+			assertEquals("/api/token", uri.getPath());
+			final int request = tokenRequests.incrementAndGet();
+			try {
+				tokenResponses.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			if (failingTokenRequests.getAndDecrement() > 0) {
+				throw new BadRequestException("Token endpoint unavailable");
+			}
+			return """
+					{"access_token": "token-%d", "token_type": "Bearer", "scope": "", "expires_in": 3600}
+					""".formatted(request);
+		}
+
+		@Override
+		public String get(URI uri, Header[] headers) throws UnauthorizedException {
+			assertEquals("/v1/me", uri.getPath());
+			final String authorization = Arrays.stream(headers)
+					.filter(header -> header.getName().equals("Authorization"))
+					.findFirst()
+					.orElseThrow()
+					.getValue();
+			synchronized (profileRequests) {
+				profileRequests.add(authorization);
+			}
+			if (rejectedTokens.contains(authorization.substring("Bearer ".length()))) {
+				throw new UnauthorizedException("The access token expired");
+			}
+			return """
+					{"id": "user", "display_name": "User", "type": "user", "uri": "spotify:user:user"}
+					""";
+		}
+
+		@Override
+		public String put(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String delete(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
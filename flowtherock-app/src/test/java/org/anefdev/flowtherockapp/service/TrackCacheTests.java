@@ -0,0 +1,81 @@
+package org.anefdev.flowtherockapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.anefdev.flowtherockapp.TestTracks;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackCacheTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void tracksSurviveRestartOnDisk() {
+		// Values as the parser produces them, the key is not ASCII
+		MusicTrack track = track("t1", "E♭-Min", "a2");
+		track.setAlbum(null);
+		track.setEnergy(0.8f);
+		track.setMatched(true);
+		TrackCache cache = cache(10);
+		cache.putAll(List.of(track));
+		cache.close();
+
+		TrackCache reopened = cache(10);
+		MusicTrack cached = reopened.getAll(List.of("t1")).get("t1");
+		// From disk first, then promoted to memory
+		reopened.getAll(List.of("t1", "t2"));
+
+		track.setMatched(false);
+		assertEquals(track, cached);
+		assertEquals(1, reopened.getStats().getDiskHits());
+		assertEquals(1, reopened.getStats().getMemoryHits());
+		assertEquals(1, reopened.getStats().getMisses());
+		reopened.close();
+	}
+
+	@Test
+	void diskEvictsLeastRecentlyWrittenOrRead() {
+		TrackCache cache = cache(3);
+		cache.putAll(List.of(track("a"), track("c"), track("b")));
+		cache.close();
+
+		TrackCache reopened = cache(3);
+		// A disk hit moves a behind c and b, so c is the oldest although a is first in key order
+		reopened.getAll(List.of("a"));
+		reopened.putAll(List.of(track("d")));
+		reopened.close();
+
+		TrackCache evicted = cache(3);
+		Map<String, MusicTrack> found = evicted.getAll(List.of("a", "b", "c", "d"));
+		assertEquals(List.of("a", "b", "d"), found.keySet().stream().sorted().toList());
+		evicted.close();
+	}
+
+	private TrackCache cache(long diskMaxEntries) {
+		return new TrackCache(100, diskMaxEntries, dir.resolve("tracks.mv.db").toString(),
+				new PipelineMetrics(new SimpleMeterRegistry()));
+	}
+
+	private static MusicTrack track(String id) {
+		return track(id, "C-Maj", "b8");
+	}
+
+	private static MusicTrack track(String id, String key, String camelot) {
+		MusicTrack track = TestTracks.track(id, camelot, "120.0");
+		track.setTitle("Title " + id);
+		track.setArtist("Artist");
+		track.setAlbum("Album");
+		track.setDuration(200000);
+		track.setKey(key);
+		track.setMode(key.endsWith("-Min") ? "MINOR" : "MAJOR");
+		return track;
+	}
+}
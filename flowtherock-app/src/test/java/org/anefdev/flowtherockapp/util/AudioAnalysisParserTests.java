@@ -0,0 +1,68 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioAnalysisParserTests {
+
+	@Test
+	void parseTrackSectionReadsTempoKeyAndMode() throws IOException {
+		MusicTrack track = AudioAnalysisParser.parseTrackSection(json("""
+				{"meta": {"analyzer_version": "4.0.0", "status_code": 0},
+				 "track": {"duration": 207.96, "tempo": 118.211, "key": 9, "mode": 0, "codestring": "eJxVnAmS5DgOBL-S",
+				           "rhythm_version": 1, "synch_version": 1.0},
+				 "bars": [{"start": 0.49, "duration": 2.18, "confidence": 0.925}]}
+				"""));
+
+		assertEquals("118.211", track.getBpm());
+		assertEquals("9", track.getKey());
+		assertEquals("MINOR", track.getMode());
+	}
+
+	@Test
+	void parseTrackSectionGivesMajorTracksAMajorCamelotCode() throws IOException {
+		MusicTrack track = AudioAnalysisParser.parseTrackSection(json("""
+				{"track": {"tempo": 124.0, "key": 0, "mode": 1}}
+				"""));
+
+		PlaylistParser.parseTrackAnalysisKey(track);
+
+		assertEquals("C-Maj", track.getKey());
+		assertEquals("b8", track.getCamelot());
+	}
+
+	@Test
+	void parseTrackSectionRejectsUnknownMode() {
+		assertThrows(IOException.class, () -> AudioAnalysisParser.parseTrackSection(json("""
+				{"track": {"tempo": 124.0, "key": 0, "mode": -1}}
+				""")));
+	}
+
+	@Test
+	void parseTrackSectionStopsAfterTrackSection() throws IOException {
+		MusicTrack track = AudioAnalysisParser.parseTrackSection(json("""
+				{"track": {"tempo": 96.0, "key": 1, "mode": 1}, "segments": [ not json at all
+				"""));
+
+		assertEquals("96.0", track.getBpm());
+	}
+
+	@Test
+	void parseTrackSectionRejectsAnalysisWithoutTrack() {
+		assertThrows(IOException.class, () -> AudioAnalysisParser.parseTrackSection(json("""
+				{"meta": {"status_code": 0}, "bars": []}
+				""")));
+	}
+
+	private static InputStream json(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.anefdev.flowtherockapp.model.MusicPlaylist;
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.SpotifyUser;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.model_objects.specification.User;
+
+import java.util.List;
+
+import static org.anefdev.flowtherockapp.TestTracks.ids;
+import static org.anefdev.flowtherockapp.TestTracks.track;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlaylistParserTests {
+
+	@Test
+	void getUserWithoutProfilePictureHasNoImage() {
+		User user = new User.Builder().setId("user").setDisplayName("User").setImages().build();
+
+		SpotifyUser spotifyUser = PlaylistParser.getUser(user);
+
+		assertEquals("user", spotifyUser.getId());
+		assertNull(spotifyUser.getImg());
+	}
+
+	@Test
+	void sortPlaylistOrdersMatchedTracksByTempoDistanceFromSeed() {
+		List<MusicTrack> playlist = List.of(
+				track("far", "a8", "140.0"),
+				track("other", "b3", "120.0"),
+				track("seed", "a8", "120.0"),
+				track("near", "a9", "121.5"),
+				track("slower", "b8", "118.0"),
+				track("same", "a7", "120.0"));
+
+		List<MusicTrack> sorted = PlaylistParser.sortPlaylist(playlist, "seed");
+
+		assertEquals(List.of("seed", "same", "near", "slower", "far", "other"), ids(sorted));
+		assertTrue(sorted.subList(0, 5).stream().allMatch(MusicTrack::isMatched));
+		assertFalse(sorted.get(5).isMatched());
+	}
+
+	@Test
+	void sortPlaylistKeepsUnmatchedTracksInPlaylistOrder() {
+		List<MusicTrack> playlist = List.of(
+				track("x1", "b1", "90.0"),
+				track("seed", "a5", "100.0"),
+				track("x2", "b12", "95.0"),
+				track("x3", "a11", "100.0"));
+
+		List<MusicTrack> sorted = PlaylistParser.sortPlaylist(playlist, "seed");
+
+		assertEquals(List.of("seed", "x1", "x2", "x3"), ids(sorted));
+	}
+
+	@Test
+	void sortPlaylistUsesFixedHarmoniesOfB2() {
+		List<MusicTrack> playlist = List.of(
+				track("seed", "b2", "100.0"),
+				track("b3", "b3", "101.0"),
+				track("a2", "a2", "102.0"));
+
+		List<MusicTrack> sorted = PlaylistParser.sortPlaylist(playlist, "seed");
+
+		assertTrue(sorted.stream().allMatch(MusicTrack::isMatched));
+	}
+
+	@Test
+	void sortPlaylistMergesTiesAcrossBucketsInPlaylistOrder() {
+		List<MusicTrack> playlist = List.of(
+				track("a9tie", "a9", "120.0"),
+				track("a8unknown", "a8", null),
+				track("seed", "a8", "120.0"),
+				track("a8tie", "a8", "120.0"),
+				track("a7below", "a7", "119.0"),
+				track("b8above", "b8", "121.0"),
+				track("a9unknown", "a9", null),
+				track("other", "b3", "120.0"));
+
+		List<MusicTrack> sorted = PlaylistParser.sortPlaylist(playlist, "seed");
+
+		// Equal distances below and above the seed tempo keep playlist order, tracks without tempo come last
+		assertEquals(List.of("seed", "a9tie", "a8tie", "a7below", "b8above", "a8unknown", "a9unknown", "other"), ids(sorted));
+	}
+
+	@Test
+	void sortPlaylistSkipsEmptyHarmonicBuckets() {
+		List<MusicTrack> playlist = List.of(
+				track("seed", "b5", "100.0"),
+				track("slower", "b5", "90.0"),
+				track("faster", "b5", "105.0"));
+
+		List<MusicTrack> sorted = PlaylistParser.sortPlaylist(playlist, "seed");
+
+		assertEquals(List.of("seed", "faster", "slower"), ids(sorted));
+	}
+
+	@Test
+	void sortPlaylistRejectsUnknownSeed() {
+		List<MusicTrack> playlist = List.of(track("a", "a1", "100.0"));
+
+		assertThrows(IllegalArgumentException.class, () -> PlaylistParser.sortPlaylist(playlist, "missing"));
+	}
+
+	@Test
+	void sortPlaylistDoesNotMutateInput() {
+		MusicTrack seed = track("seed", "a1", "100.0");
+
+		PlaylistParser.sortPlaylist(List.of(seed), "seed");
+
+		assertFalse(seed.isMatched());
+	}
+
+	@Test
+	void playlistsVersionChangesWithSnapshotsAndOrder() {
+		MusicPlaylist first = new MusicPlaylist("p1", "First", 10, "https://i.scdn.co/image/p1", "s1");
+		MusicPlaylist second = new MusicPlaylist("p2", "Second", 20, "https://i.scdn.co/image/p2", "s1");
+		MusicPlaylist edited = new MusicPlaylist("p1", "First", 10, "https://i.scdn.co/image/p1", "s2");
+
+		String version = PlaylistParser.getPlaylistsVersion(List.of(first, second));
+
+		assertEquals(version, PlaylistParser.getPlaylistsVersion(List.of(
+				new MusicPlaylist("p1", "First", 10, "https://i.scdn.co/image/p1", "s1"), second)));
+		assertNotEquals(version, PlaylistParser.getPlaylistsVersion(List.of(edited, second)));
+		assertNotEquals(version, PlaylistParser.getPlaylistsVersion(List.of(second, first)));
+	}
+
+}
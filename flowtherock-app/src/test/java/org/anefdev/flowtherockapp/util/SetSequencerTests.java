@@ -0,0 +1,86 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.anefdev.flowtherockapp.model.MusicTrack;
+import org.anefdev.flowtherockapp.model.TrackTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.anefdev.flowtherockapp.TestTracks.ids;
+import static org.anefdev.flowtherockapp.TestTracks.track;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SetSequencerTests {
+
+	@Test
+	void sequencePlaylistWalksTheWheelFromSeed() {
+		TrackTable playlist = TrackTable.of(List.of(
+				track("b12", "b12", "90.0"),
+				track("a9", "a9", "124.0"),
+				track("seed", "a7", "120.0"),
+				track("a10", "a10", "126.0"),
+				track("a8", "a8", "122.0")));
+
+		List<MusicTrack> sequenced = SetSequencer.sequencePlaylist(playlist, "seed", 1f, 0.1f, 0f, 100);
+
+		assertEquals(List.of("seed", "a8", "a9", "a10", "b12"), ids(sequenced));
+		assertTrue(sequenced.subList(0, 4).stream().allMatch(MusicTrack::isMatched));
+		assertFalse(sequenced.get(4).isMatched());
+	}
+
+	@Test
+	void sequencePlaylistKeepsEveryTrackOnce() {
+		Random random = new Random(7);
+		List<MusicTrack> tracks = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			String camelot = (random.nextBoolean() ? "a" : "b") + (1 + random.nextInt(12));
+			tracks.add(track("id" + i, random.nextInt(20) == 0 ? null : camelot, String.valueOf(80 + random.nextInt(80))));
+		}
+
+		List<MusicTrack> sequenced = SetSequencer.sequencePlaylist(TrackTable.of(tracks), "id3", 1f, 0.1f, 0f, 200);
+
+		assertEquals(2000, sequenced.size());
+		assertEquals(2000, new HashSet<>(ids(sequenced)).size());
+		assertEquals("id3", sequenced.get(0).getId());
+	}
+
+	@Test
+	void greedyPathTakesACheapestTrackAtEveryStep() {
+		Random random = new Random(11);
+		List<MusicTrack> tracks = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			String camelot = (random.nextBoolean() ? "a" : "b") + (1 + random.nextInt(12));
+			MusicTrack track = track("id" + i, random.nextInt(20) == 0 ? null : camelot,
+					random.nextInt(20) == 0 ? null : String.valueOf(80 + random.nextInt(80)));
+			track.setEnergy(random.nextInt(10) == 0 ? null : random.nextFloat());
+			tracks.add(track);
+		}
+		TrackTable playlist = TrackTable.of(tracks);
+		SetSequencer sequencer = new SetSequencer(playlist, 1f, 0.1f, 0.5f, 0);
+
+		sequencer.buildGreedyPath(3);
+
+		int[] path = sequencer.path();
+		assertEquals(3, path[0]);
+		assertEquals(5000, Arrays.stream(path).distinct().count());
+		for (int step = 1; step < path.length; step++) {
+			float taken = sequencer.cost(path[step - 1], path[step]);
+			for (int later = step + 1; later < path.length; later++) {
+				assertTrue(taken <= sequencer.cost(path[step - 1], path[later]), "Cheaper track skipped at step " + step);
+			}
+		}
+	}
+
+	@Test
+	void sequencePlaylistRejectsUnknownSeed() {
+		TrackTable playlist = TrackTable.of(List.of(track("a", "a1", "100.0")));
+
+		assertThrows(IllegalArgumentException.class,
+				() -> SetSequencer.sequencePlaylist(playlist, "missing", 1f, 0.1f, 0f, 100));
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTests {
+
+	@Test
+	void concurrentCallsShareOneLoad() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> load = new CompletableFuture<>();
+		AtomicInteger loads = new AtomicInteger();
+
+		CompletableFuture<String> first = flights.execute("key", () -> {
+			loads.incrementAndGet();
+			return load;
+		});
+		CompletableFuture<String> second = flights.execute("key", () -> {
+			loads.incrementAndGet();
+			return CompletableFuture.completedFuture("other");
+		});
+		load.complete("value");
+
+		assertEquals("value", first.join());
+		assertEquals("value", second.join());
+		assertEquals(1, loads.get());
+		assertEquals(0, flights.size());
+	}
+
+	@Test
+	void executeAllLoadsOnlyKeysNotInFlight() {
+		SingleFlight<String, Integer> flights = new SingleFlight<>();
+		CompletableFuture<Map<String, Integer>> firstLoad = new CompletableFuture<>();
+		flights.executeAll(List.of("a", "b"), keys -> firstLoad);
+
+		Map<String, CompletableFuture<Integer>> second = flights.executeAll(List.of("b", "c"), keys -> {
+			assertEquals(List.of("c"), keys);
+			return CompletableFuture.completedFuture(Map.of("c", 3));
+		});
+		firstLoad.complete(Map.of("a", 1, "b", 2));
+
+		assertEquals(2, second.get("b").join());
+		assertEquals(3, second.get("c").join());
+	}
+
+	@Test
+	void failuresReachAllCallers() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> load = new CompletableFuture<>();
+		CompletableFuture<String> first = flights.execute("key", () -> load);
+		CompletableFuture<String> second = flights.execute("key", () -> load);
+
+		load.completeExceptionally(new IllegalStateException("failed"));
+
+		CompletionException failure = assertThrows(CompletionException.class, first::join);
+		assertInstanceOf(IllegalStateException.class, failure.getCause());
+		assertThrows(CompletionException.class, second::join);
+		assertEquals(0, flights.size());
+	}
+
+	@Test
+	void loadIsCancelledWhenTheLastCallerCancels() {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		CompletableFuture<String> load = new CompletableFuture<>();
+		CompletableFuture<String> first = flights.execute("key", () -> load);
+		CompletableFuture<String> second = flights.execute("key", () -> load);
+
+		first.cancel(true);
+		assertFalse(load.isCancelled());
+		second.cancel(true);
+
+		assertTrue(load.isCancelled());
+		assertEquals(0, flights.size());
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.anefdev.flowtherockapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructuredFuturesTests {
+
+	@Test
+	void joinAllCancelsSiblingsWhenInterrupted() throws InterruptedException {
+		CompletableFuture<String> first = new CompletableFuture<>();
+		CompletableFuture<String> second = new CompletableFuture<>();
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+
+		Thread waiting = new Thread(() -> {
+			try {
+				StructuredFutures.joinAll(List.of(first, second));
+			} catch (Throwable e) {
+				thrown.set(e);
+			}
+		});
+		waiting.start();
+		waiting.interrupt();
+		waiting.join(5000);
+
+		assertInstanceOf(CancellationException.class, thrown.get());
+		assertTrue(first.isCancelled());
+		assertTrue(second.isCancelled());
+	}
+
+	@Test
+	void joinAllCancelsSiblingsOnFirstFailure() {
+		CompletableFuture<String> failed = CompletableFuture.failedFuture(new IllegalStateException("failed"));
+		CompletableFuture<String> running = new CompletableFuture<>();
+
+		RuntimeException thrown = assertThrows(RuntimeException.class, () -> StructuredFutures.joinAll(List.of(failed, running)));
+
+		assertInstanceOf(IllegalStateException.class, thrown.getCause());
+		assertTrue(running.isCancelled());
+	}
+}